@@ -0,0 +1,110 @@
+package at.favre.tools.dconvert.converters.scaling;
+
+import at.favre.tools.dconvert.converters.scaling.SeparableResampleAlgorithm.Contributions;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels of {@link SeparableResampleAlgorithm} using the incubating Vector API, loaded by {@link ResampleKernel} if
+ * available. The horizontal pass keeps the channels of a pixel (of both rows of a pair) in the lanes of one vector, the
+ * vertical pass accumulates several channels per vector over all contributions before storing them.
+ * <p>
+ * Products and sums are not fused, so results are identical to the {@link ScalarResampleKernel}. Vectors are at most
+ * 256 bit wide; on cpus with 128 bit vectors (e.g. NEON) two halves are used.
+ */
+class VectorResampleKernel implements ResampleKernel {
+    private static final boolean WIDE = FloatVector.SPECIES_PREFERRED.vectorBitSize() >= 256;
+    private static final VectorSpecies<Float> FLOATS = WIDE ? FloatVector.SPECIES_256 : FloatVector.SPECIES_128;
+    private static final VectorSpecies<Integer> INTS = WIDE ? IntVector.SPECIES_256 : IntVector.SPECIES_128;
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_64;
+    private static final int LANES = FLOATS.length();
+
+    @Override
+    public void scaleHorizontally(int[] src, int srcOffset, int srcWidth, int rowCount, Alpha alpha, byte[] dst, int dstWidth, Contributions contributions) {
+        int stride = contributions.stride;
+        float[] rows = SeparableResampleAlgorithm.getFloatBuffer(srcWidth * 8);
+        float[] channels = new float[8];
+        for (int y = 0; y < rowCount; y += 2) {
+            int srcRow = srcOffset + y * srcWidth;
+            int nextRow = y + 1 < rowCount ? srcRow + srcWidth : srcRow;
+            ScalarResampleKernel.unpackRows(src, srcRow, nextRow, alpha, srcWidth, rows);
+
+            int dstRow = y * dstWidth * 4;
+            int dstNextRow = dstRow + dstWidth * 4;
+            boolean writeNext = y + 1 < rowCount;
+            for (int x = 0; x < dstWidth; x++) {
+                int start = x * stride;
+                int end = start + contributions.count[x];
+                if (WIDE) {
+                    FloatVector sum = FloatVector.zero(FLOATS);
+                    for (int i = start; i < end; i++) {
+                        sum = sum.add(FloatVector.fromArray(FLOATS, rows, contributions.pixel[i] << 3).mul(contributions.weight[i]));
+                    }
+                    sum.intoArray(channels, 0);
+                } else {
+                    FloatVector sum = FloatVector.zero(FLOATS);
+                    FloatVector nextSum = FloatVector.zero(FLOATS);
+                    for (int i = start; i < end; i++) {
+                        int j = contributions.pixel[i] << 3;
+                        float weight = contributions.weight[i];
+                        sum = sum.add(FloatVector.fromArray(FLOATS, rows, j).mul(weight));
+                        nextSum = nextSum.add(FloatVector.fromArray(FLOATS, rows, j + 4).mul(weight));
+                    }
+                    sum.intoArray(channels, 0);
+                    nextSum.intoArray(channels, 4);
+                }
+
+                int k = dstRow + (x << 2);
+                for (int c = 0; c < 4; c++) {
+                    dst[k + c] = (byte) SeparableResampleAlgorithm.toByte(channels[c]);
+                }
+                if (writeNext) {
+                    k = dstNextRow + (x << 2);
+                    for (int c = 0; c < 4; c++) {
+                        dst[k + c] = (byte) SeparableResampleAlgorithm.toByte(channels[c + 4]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void scaleVertically(byte[] src, int firstRow, int width, Alpha alpha, int[] dst, Contributions contributions) {
+        int stride = contributions.stride;
+        int rowLength = width * 4;
+        float[] row = SeparableResampleAlgorithm.getFloatBuffer(rowLength);
+        for (int y = 0; y < contributions.count.length; y++) {
+            int start = y * stride;
+            int end = start + contributions.count[y];
+
+            // byte vectors are 8 lanes wide, so a load may not go past the end of the row
+            int j = 0;
+            for (; j + BYTES.length() <= rowLength; j += LANES) {
+                FloatVector sum = FloatVector.zero(FLOATS);
+                for (int i = start; i < end; i++) {
+                    int offset = (contributions.pixel[i] - firstRow) * rowLength + j;
+                    IntVector channels = (IntVector) ByteVector.fromArray(BYTES, src, offset).convertShape(VectorOperators.B2I, INTS, 0);
+                    sum = sum.add(((FloatVector) channels.and(0xFF).convert(VectorOperators.I2F, 0)).mul(contributions.weight[i]));
+                }
+                sum.intoArray(row, j);
+            }
+            for (; j < rowLength; j++) {
+                float sum = 0;
+                for (int i = start; i < end; i++) {
+                    sum += contributions.weight[i] * (src[(contributions.pixel[i] - firstRow) * rowLength + j] & 0xFF);
+                }
+                row[j] = sum;
+            }
+
+            SeparableResampleAlgorithm.packRow(row, alpha, dst, (contributions.from + y) * width, width);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "vector" + FLOATS.vectorBitSize();
+    }
+}
@@ -35,6 +35,7 @@ import java.io.File;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This is the main class handling all of the converters and post processors.
@@ -48,6 +49,12 @@ public class DConvert {
 	private HandlerCallback handlerCallback;
 	private long beginMs;
 	private StringBuilder logStringBuilder = new StringBuilder();
+	private final AtomicBoolean finished = new AtomicBoolean(false);
+	private WorkerHandler<IPlatformConverter> converterHandler;
+	private volatile float convertProgress;
+	private volatile float postProcessorProgress;
+	private volatile int finishedJobsConverters;
+	private volatile List<Exception> exceptionsConverters;
 
 	/**
 	 * Starts the execution of the dconvert
@@ -124,34 +131,51 @@ public class DConvert {
 				}
 			}
 
-			new WorkerHandler<>(converters, args, new WorkerHandler.Callback() {
+			// output files are post processed as soon as they are written, while the converters are still running; the
+			// post processors mostly wait for external tools, so they get their own pool sized independently of the converters
+			final WorkerHandler<IPostProcessor> postProcessorHandler;
+			if (postProcessors.isEmpty()) {
+				postProcessorHandler = null;
+			} else {
+				logStringBuilder.append("post process with max ").append(args.getEffectivePostProcessorThreadCount()).append(" parallel tools\n");
+				postProcessorHandler = createPostProcessorHandler(postProcessors, args, convertPercentage, postProcessPercentage);
+				postProcessorHandler.startStream();
+			}
+
+			converterHandler = new WorkerHandler<>(converters, args, new WorkerHandler.Callback() {
 				@Override
 				public void onProgress(float percent) {
-					handlerCallback.onProgress(convertPercentage * percent);
+					convertProgress = percent;
+					handlerCallback.onProgress(convertPercentage * convertProgress + postProcessPercentage * postProcessorProgress);
+				}
+
+				@Override
+				public void onFilesCreated(List<File> files) {
+					if (postProcessorHandler != null) {
+						for (File file : files) {
+							postProcessorHandler.add(file);
+						}
+					}
 				}
 
 				@Override
 				public void onFinished(final int finishedJobsConverters, List<File> outFiles, final StringBuilder logConverters, final List<Exception> exceptionsConverters, final boolean haltedDuringProcessConverters) {
 					logStringBuilder.append(logConverters);
 					if (haltedDuringProcessConverters) {
+						if (postProcessorHandler != null) {
+							postProcessorHandler.cancel();
+						}
 						informFinished(finishedJobsConverters, exceptionsConverters, true);
+					} else if (postProcessorHandler == null) {
+						informFinished(finishedJobsConverters, exceptionsConverters, false);
 					} else {
-						new WorkerHandler<>(postProcessors, args, new WorkerHandler.Callback() {
-							@Override
-							public void onProgress(float percent) {
-								handlerCallback.onProgress(convertPercentage + (postProcessPercentage * percent));
-							}
-
-							@Override
-							public void onFinished(int finishedJobsPostProcessors, List<File> outFiles, StringBuilder log, List<Exception> exceptions, boolean haltedDuringProcess) {
-								exceptionsConverters.addAll(exceptions);
-								logStringBuilder.append(log);
-								informFinished(finishedJobsPostProcessors + finishedJobsConverters, exceptionsConverters, haltedDuringProcess);
-							}
-						}).start(outFiles);
+						DConvert.this.finishedJobsConverters = finishedJobsConverters;
+						DConvert.this.exceptionsConverters = exceptionsConverters;
+						postProcessorHandler.close();
 					}
 				}
-			}).start(args.filesToProcess);
+			});
+			converterHandler.start(args.filesToProcess);
 
 			if (blockingWaitForFinish) {
 				try {
@@ -166,7 +190,36 @@ public class DConvert {
 		}
 	}
 
+	/**
+	 * Post processes the files added while the converters are running; finishing it finishes the whole execution
+	 */
+	private WorkerHandler<IPostProcessor> createPostProcessorHandler(List<IPostProcessor> postProcessors, Arguments args, float convertPercentage, float postProcessPercentage) {
+		return new WorkerHandler<>(postProcessors, args, args.getEffectivePostProcessorThreadCount(), new WorkerHandler.Callback() {
+			@Override
+			public void onProgress(float percent) {
+				postProcessorProgress = percent;
+				handlerCallback.onProgress(convertPercentage * convertProgress + postProcessPercentage * postProcessorProgress);
+			}
+
+			@Override
+			public void onFinished(int finishedJobsPostProcessors, List<File> outFiles, StringBuilder log, List<Exception> exceptions, boolean haltedDuringProcess) {
+				if (haltedDuringProcess) {
+					converterHandler.cancel();
+					informFinished(finishedJobsPostProcessors, exceptions, true);
+				} else {
+					exceptionsConverters.addAll(exceptions);
+					logStringBuilder.append(log);
+					informFinished(finishedJobsPostProcessors + finishedJobsConverters, exceptionsConverters, false);
+				}
+			}
+		});
+	}
+
 	private void informFinished(int finishedJobs, List<Exception> exceptions, boolean haltedDuringProcess) {
+		if (!finished.compareAndSet(false, true)) {
+			return;
+		}
+
 		System.gc();
 		printTrace();
 		if (handlerCallback != null) {
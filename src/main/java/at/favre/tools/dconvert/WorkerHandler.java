@@ -1,128 +1,669 @@
 package at.favre.tools.dconvert;
 
 import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.arg.ImageType;
+import at.favre.tools.dconvert.converters.APlatformConverter;
+import at.favre.tools.dconvert.converters.AndroidConverter;
+import at.favre.tools.dconvert.converters.ConversionPlan;
 import at.favre.tools.dconvert.converters.IPlatformConverter;
 import at.favre.tools.dconvert.converters.Result;
 import at.favre.tools.dconvert.converters.postprocessing.IPostProcessor;
+import at.favre.tools.dconvert.util.ImageProbe;
+import at.favre.tools.dconvert.util.ImageUtil;
+import at.favre.tools.dconvert.util.MemoryBudget;
+import at.favre.tools.dconvert.util.SourceImageCache;
 
+import java.awt.*;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Handles post processing tasks
  */
 public class WorkerHandler<T> {
+	private static final int MAX_PENDING_JOBS_PER_THREAD = 8;
+	private static final long PROGRESS_INTERVAL_MS = 100;
+	private static final long PROGRESS_INTERVAL_NANOS = PROGRESS_INTERVAL_MS * 1_000_000L;
+	/**
+	 * Released on cancel, more than threads can ever wait in {@link #add(File)}
+	 */
+	private static final int CANCEL_PERMITS = 1 << 20;
 
 	private final List<T> processors;
-	private final ExecutorService threadPool;
+	private final ForkJoinPool threadPool;
 	private final Arguments arguments;
+	private final int threadCount;
 	private final Callback callback;
-	private int jobCount;
+	private final SourceImageCache imageCache;
+	private final Semaphore pendingStreamJobs;
+	private final MemoryBudget memoryBudget;
+	private final Map<File, SourceAdmission> admissions = new ConcurrentHashMap<>();
+	private InternalCallback internalCallback;
+	private JobProducer jobProducer;
+	private Prefetcher prefetcher;
 
 	public WorkerHandler(List<T> processors, Arguments arguments, Callback callback) {
+		this(processors, arguments, arguments.threadCount, callback);
+	}
+
+	/**
+	 * @param threadCount size of this handler's own pool, e.g. to run more post processors than converters; the pool
+	 *                    is only started if there are processors
+	 */
+	public WorkerHandler(List<T> processors, Arguments arguments, int threadCount, Callback callback) {
 		this.processors = processors;
-		this.threadPool = new ThreadPoolExecutor(arguments.threadCount, arguments.threadCount, 5, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1024 * 10));
+		this.threadPool = processors.isEmpty() ? null : new ForkJoinPool(threadCount);
 		this.callback = callback;
 		this.arguments = arguments;
+		this.threadCount = threadCount;
+		this.pendingStreamJobs = new Semaphore(Math.max(processors.size(), threadCount * MAX_PENDING_JOBS_PER_THREAD));
+		this.memoryBudget = new MemoryBudget(arguments.memoryBudgetMb);
+		this.imageCache = new SourceImageCache(memoryBudget);
 	}
 
+	/**
+	 * Processes all files with all processors. Jobs are created lazily while the handler works, so only a few of them
+	 * are queued at any time, no matter how many files are given.
+	 *
+	 * @param allFiles to process
+	 */
 	public void start(List<File> allFiles) {
-		this.jobCount = allFiles.size() * processors.size();
+		internalCallback = new InternalCallback(callback, allFiles.size() * processors.size(), true);
+		jobProducer = new JobProducer(allFiles.iterator());
+
+		if (arguments.prefetchCount > 0 && !arguments.dryRun && !arguments.skipExistingFiles && processors.stream().anyMatch(IPlatformConverter.class::isInstance)) {
+			prefetcher = new Prefetcher(arguments.prefetchCount);
+		}
+
+		for (int i = 0; threadPool != null && i < threadCount * MAX_PENDING_JOBS_PER_THREAD; i++) {
+			if (!jobProducer.submitNext()) {
+				break;
+			}
+		}
 
-		InternalCallback internalCallback = new InternalCallback(callback);
+		internalCallback.checkFinished();
+	}
+
+	/**
+	 * Starts the handler without any files, so they can be added with {@link #add(File)} as soon as they are created
+	 * (e.g. by the converters) while the handler is already working. It will finish after {@link #close()} was called
+	 * and all added jobs are done.
+	 */
+	public void startStream() {
+		internalCallback = new InternalCallback(callback, 0, false);
+	}
 
+	/**
+	 * Adds a file to be processed by all processors of a handler started with {@link #startStream()}. Blocks if too many
+	 * jobs are pending, so the previous stage can not run too far ahead.
+	 *
+	 * @param file to process
+	 */
+	public void add(File file) {
 		for (T processor : processors) {
-			for (File fileToProcess : allFiles) {
-				threadPool.execute(new Worker(fileToProcess, processor, arguments, internalCallback));
+			try {
+				// lets the pool of a calling worker compensate while it waits; cancel releases enough permits to wake it
+				ForkJoinPool.managedBlock(new PendingJobPermit());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			if (!internalCallback.addJob()) {
+				pendingStreamJobs.release();
+				return;
+			}
+
+			try {
+				threadPool.execute(new Worker(file, processor, arguments, internalCallback, true));
+			} catch (RejectedExecutionException e) {
+				pendingStreamJobs.release();
+				return;
 			}
 		}
+	}
 
-		threadPool.shutdown();
+	/**
+	 * Acquires one of {@link #pendingStreamJobs}
+	 */
+	private class PendingJobPermit implements ForkJoinPool.ManagedBlocker {
+		private boolean acquired;
 
-		if (jobCount == 0) {
-			callback.onFinished(0, Collections.emptyList(), new StringBuilder(), Collections.emptyList(), false);
+		@Override
+		public boolean block() throws InterruptedException {
+			if (!acquired) {
+				pendingStreamJobs.acquire();
+				acquired = true;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			return acquired || (acquired = pendingStreamJobs.tryAcquire());
+		}
+	}
+
+	/**
+	 * Marks that no more files will be added to a handler started with {@link #startStream()}
+	 */
+	public void close() {
+		internalCallback.close();
+	}
+
+	/**
+	 * Stops all running jobs without calling the callback, e.g. if the previous stage was halted
+	 */
+	public void cancel() {
+		internalCallback.cancel();
+	}
+
+	/**
+	 * Creates the jobs of {@link #start(List)} on demand: every finished job submits the next one. Jobs of the same file
+	 * are created next to each other, so the shared source image can be released early.
+	 */
+	private class JobProducer {
+		private final Iterator<File> files;
+		private final int converterCount;
+		private File currentFile;
+		private int processorIndex;
+
+		JobProducer(Iterator<File> files) {
+			this.files = files;
+			this.converterCount = (int) processors.stream().filter(IPlatformConverter.class::isInstance).count();
+		}
+
+		/**
+		 * @return false if there are no more jobs or the handler was stopped
+		 */
+		boolean submitNext() {
+			Worker worker = next();
+			if (worker == null) {
+				return false;
+			}
+			try {
+				threadPool.execute(worker);
+				return true;
+			} catch (RejectedExecutionException e) {
+				return false;
+			}
+		}
+
+		private synchronized Worker next() {
+			if (internalCallback.isCanceled()) {
+				return null;
+			}
+			if (currentFile == null || processorIndex >= processors.size()) {
+				if (!files.hasNext()) {
+					return null;
+				}
+				currentFile = files.next();
+				processorIndex = 0;
+				if (converterCount > 0) {
+					SourceAdmission admission = new SourceAdmission(currentFile, converterCount);
+					imageCache.register(currentFile, converterCount);
+					admissions.put(currentFile, admission);
+					if (prefetcher != null) {
+						prefetcher.add(currentFile, admission);
+					}
+				}
+			}
+			return new Worker(currentFile, processors.get(processorIndex++), arguments, internalCallback, false);
 		}
 	}
 
-	private class Worker implements Runnable {
+	private class Worker extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
 		private File unprocessedFile;
 		private T processor;
 		private InternalCallback callback;
 		private final Arguments arguments;
+		private final boolean isStreamJob;
 
-		public Worker(File unprocessedFile, T processors, Arguments arguments, InternalCallback callback) {
+		public Worker(File unprocessedFile, T processors, Arguments arguments, InternalCallback callback, boolean isStreamJob) {
 			this.unprocessedFile = unprocessedFile;
 			this.arguments = arguments;
 			this.processor = processors;
 			this.callback = callback;
+			this.isStreamJob = isStreamJob;
 		}
 
 		@Override
-		public void run() {
+		protected void compute() {
+			try {
+				process();
+			} finally {
+				if (!isStreamJob) {
+					jobProducer.submitNext();
+				}
+			}
+		}
+
+		private void process() {
 			Result result = null;
 			if (IPostProcessor.class.isInstance(processor)) {
 				result = ((IPostProcessor) processor).process(unprocessedFile, arguments.keepUnoptimizedFilesPostProcessor);
 			} else if (IPlatformConverter.class.isInstance(processor)) {
-				result = ((IPlatformConverter) processor).convert(unprocessedFile, arguments);
+				SourceAdmission admission = admissions.computeIfAbsent(unprocessedFile, file -> new SourceAdmission(file, 1));
+				try {
+					admission.start();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					admission.leave();
+					finishJob(new Result(null, e, Collections.emptyList()));
+					return;
+				}
+
+				ConversionPlan plan = ((IPlatformConverter) processor).plan(unprocessedFile, arguments, imageCache);
+
+				// the other densities are forked to this worker's queue, so idle workers can steal them
+				for (int i = 1; i < plan.getTaskCount(); i++) {
+					new DensityWorker(plan, i, admission, callback).fork();
+				}
+
+				if (plan.getTaskCount() > 0) {
+					result = plan.runTask(0, callback::onTaskFinished);
+				} else {
+					result = plan.getResult();
+				}
+
+				if (result == null) {
+					return;
+				}
+				admission.leave();
+			}
+			finishJob(result);
+		}
+
+		private void finishJob(Result result) {
+			if (isStreamJob) {
+				pendingStreamJobs.release();
 			}
 			callback.onJobFinished(result);
 		}
 	}
 
-	private class InternalCallback {
-		private int currentJobCount = 0;
-		private List<Exception> exceptionList = new ArrayList<>();
-		private Callback callback;
-		private StringBuilder logBuilder = new StringBuilder();
-		private boolean canceled = false;
-		private List<File> files = new ArrayList<>();
-
-		public InternalCallback(Callback callback) {
+	private class DensityWorker extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final ConversionPlan plan;
+		private final int taskIndex;
+		private final SourceAdmission admission;
+		private final InternalCallback callback;
+
+		DensityWorker(ConversionPlan plan, int taskIndex, SourceAdmission admission, InternalCallback callback) {
+			this.plan = plan;
+			this.taskIndex = taskIndex;
+			this.admission = admission;
 			this.callback = callback;
 		}
 
-		synchronized void onJobFinished(Result result) {
-			if (!canceled) {
-				currentJobCount++;
+		@Override
+		protected void compute() {
+			Result result = plan.runTask(taskIndex, callback::onTaskFinished);
+			if (result != null) {
+				admission.leave();
+				callback.onJobFinished(result);
+			}
+		}
+	}
+
+	/**
+	 * Reserves the estimated memory footprint of a source in the {@link MemoryBudget} once for all converters using it;
+	 * it is freed after the last of them finished. The estimation only reads the image header. If all targets are
+	 * much smaller than the source, the shared image is decoded with subsampling or, if it is huge, reduced row by row
+	 * while reading it.
+	 */
+	private class SourceAdmission {
+		private final File srcFile;
+		private int remainingJobs;
+		private CompletableFuture<Void> reservation;
+		private long reservedBytes;
+		private boolean started;
+		private boolean prefetching;
+
+		SourceAdmission(File srcFile, int jobs) {
+			this.srcFile = srcFile;
+			this.remainingJobs = jobs;
+		}
 
-				if (result != null) {
-					if (result.log != null && result.log.length() > 0) {
-						logBuilder.append(result.log).append("\n");
+		/**
+		 * Called by every converter job before it starts
+		 */
+		void start() throws InterruptedException {
+			synchronized (this) {
+				if (!started) {
+					started = true;
+					if (prefetching) {
+						prefetcher.onStarted();
 					}
-					if (result.processedFiles != null) {
-						files.addAll(result.processedFiles);
+				}
+			}
+			enter();
+		}
+
+		/**
+		 * @return false if a converter already started, so prefetching is pointless
+		 */
+		synchronized boolean claimForPrefetch() {
+			if (started) {
+				return false;
+			}
+			prefetching = true;
+			return true;
+		}
+
+		/**
+		 * Reserves the footprint on the first call; the budget is waited for outside of this admission's lock, other
+		 * callers wait for that reservation
+		 */
+		void enter() throws InterruptedException {
+			while (true) {
+				CompletableFuture<Void> current;
+				boolean reserve = false;
+				synchronized (this) {
+					if (reservation == null) {
+						reservation = new CompletableFuture<>();
+						reserve = true;
 					}
-					if (result.exception != null) {
-						exceptionList.add(result.exception);
+					current = reservation;
+				}
+
+				if (reserve) {
+					reserve(current);
+					return;
+				}
+				try {
+					// blocks as managed blocker, so the pool may compensate the waiting worker
+					current.get();
+					return;
+				} catch (ExecutionException e) {
+					// the reserving thread was interrupted, try again
+				}
+			}
+		}
 
-						if (arguments.haltOnError) {
-							canceled = true;
-							threadPool.shutdownNow();
-							callback.onFinished(currentJobCount, files, logBuilder, exceptionList, true);
+		private void reserve(CompletableFuture<Void> current) throws InterruptedException {
+			try {
+				long bytes = arguments.dryRun ? 0 : estimateFootprint();
+				memoryBudget.acquire(bytes);
+				synchronized (this) {
+					reservedBytes = bytes;
+				}
+				current.complete(null);
+			} catch (Throwable e) {
+				synchronized (this) {
+					reservation = null;
+				}
+				current.completeExceptionally(e);
+				throw e;
+			}
+		}
+
+		synchronized void leave() {
+			if (--remainingJobs <= 0) {
+				memoryBudget.release(reservedBytes);
+				admissions.remove(srcFile, this);
+			}
+		}
+
+		private long estimateFootprint() {
+			try {
+				Dimension srcDimension = ImageProbe.probe(srcFile).getDimension();
+				Dimension largestTarget = null;
+				for (T processor : processors) {
+					if (processor instanceof APlatformConverter) {
+						Dimension dimension = ((APlatformConverter) processor).getLargestOutputDimension(srcDimension, arguments);
+						if (dimension != null && (largestTarget == null || (long) dimension.width * dimension.height > (long) largestTarget.width * largestTarget.height)) {
+							largestTarget = dimension;
 						}
 					}
 				}
-
-				if (!canceled) {
-					if (currentJobCount == jobCount) {
-						callback.onFinished(currentJobCount, files, logBuilder, exceptionList, false);
+				Dimension decodedDimension = srcDimension;
+				if (Arguments.getImageType(srcFile) != ImageType.SVG && !AndroidConverter.isNinePatch(srcFile)) {
+					Dimension bandedDimension = ImageUtil.getBandedDecodingDimension(srcFile, srcDimension, largestTarget);
+					if (bandedDimension != null) {
+						imageCache.setBandedDecoding(srcFile, bandedDimension);
+						decodedDimension = bandedDimension;
 					} else {
-						callback.onProgress((float) currentJobCount / (float) jobCount);
+						int subsampling = ImageUtil.getSubsampling(srcDimension, largestTarget);
+						imageCache.setSubsampling(srcFile, subsampling);
+						decodedDimension = ImageUtil.getSubsampledDimension(srcDimension, subsampling);
 					}
 				}
+				return MemoryBudget.estimateFootprint(decodedDimension, largestTarget);
+			} catch (Exception e) {
+				// the conversion will report the problem, until then the source may still be decoded at any size
+				return memoryBudget.getMaxBytes();
+			}
+		}
+	}
+
+	/**
+	 * Decodes upcoming sources in its own thread, so converters find them ready instead of waiting for I/O and
+	 * decoding. At most the given count of prefetched sources wait for their converters, and each of them has to be
+	 * admitted by the memory budget before it is decoded.
+	 */
+	private class Prefetcher {
+		private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "dconvert-prefetch");
+			thread.setDaemon(true);
+			return thread;
+		});
+		private final Semaphore window;
+
+		Prefetcher(int count) {
+			this.window = new Semaphore(count);
+		}
+
+		void add(File srcFile, SourceAdmission admission) {
+			try {
+				executor.execute(() -> prefetch(srcFile, admission));
+			} catch (RejectedExecutionException e) {
+				// already finished
+			}
+		}
+
+		private void prefetch(File srcFile, SourceAdmission admission) {
+			try {
+				window.acquire();
+				if (!admission.claimForPrefetch()) {
+					window.release();
+					return;
+				}
+				admission.enter();
+				imageCache.prefetch(srcFile);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		void onStarted() {
+			window.release();
+		}
+
+		void shutdown() {
+			executor.shutdownNow();
+		}
+	}
+
+	private void shutdownPools(boolean interrupt) {
+		if (interrupt) {
+			pendingStreamJobs.release(CANCEL_PERMITS);
+		}
+		if (threadPool != null) {
+			if (interrupt) {
+				threadPool.shutdownNow();
+			} else {
+				threadPool.shutdown();
+			}
+		}
+		if (prefetcher != null) {
+			prefetcher.shutdown();
+		}
+	}
+
+	/**
+	 * Collects the results of all jobs. Finishing a job only touches a buffer owned by the calling thread and a few
+	 * atomic counters, the buffers are merged once at the end; progress is reported at most every
+	 * {@link #PROGRESS_INTERVAL_MS} ms.
+	 */
+	private class InternalCallback {
+		private final LongAdder finishedJobCount = new LongAdder();
+		private final AtomicBoolean finished = new AtomicBoolean(false);
+		private final AtomicLong lastProgressNanos = new AtomicLong(System.nanoTime() - PROGRESS_INTERVAL_NANOS);
+		private final Queue<ResultBuffer> buffers = new ConcurrentLinkedQueue<>();
+		private final ThreadLocal<ResultBuffer> threadBuffer = ThreadLocal.withInitial(() -> {
+			ResultBuffer buffer = new ResultBuffer();
+			buffers.add(buffer);
+			return buffer;
+		});
+		private final Callback callback;
+		private volatile int jobCount;
+		private volatile boolean closed;
+		private volatile boolean canceled = false;
+
+		public InternalCallback(Callback callback, int jobCount, boolean closed) {
+			this.callback = callback;
+			this.jobCount = jobCount;
+			this.closed = closed;
+		}
+
+		void onTaskFinished(Result taskResult) {
+			if (!isCanceled() && taskResult.exception == null && !taskResult.processedFiles.isEmpty()) {
+				callback.onFilesCreated(taskResult.processedFiles);
+			}
+		}
+
+		void onJobFinished(Result result) {
+			if (canceled) {
+				return;
+			}
+
+			if (result != null) {
+				threadBuffer.get().add(result);
+			}
+			finishedJobCount.increment();
+
+			if (result != null && result.exception != null && arguments.haltOnError) {
+				if (finished.compareAndSet(false, true)) {
+					canceled = true;
+					shutdownPools(true);
+					reportFinished(true);
+				}
+				return;
+			}
+
+			if (!checkFinished()) {
+				notifyProgress();
 			}
 		}
+
+		boolean checkFinished() {
+			if (!canceled && closed && finishedJobCount.sum() == jobCount && finished.compareAndSet(false, true)) {
+				shutdownPools(false);
+				reportFinished(false);
+				return true;
+			}
+			return false;
+		}
+
+		private void notifyProgress() {
+			long now = System.nanoTime();
+			long last = lastProgressNanos.get();
+			if (now - last >= PROGRESS_INTERVAL_NANOS && lastProgressNanos.compareAndSet(last, now)) {
+				callback.onProgress((float) finishedJobCount.sum() / (float) jobCount);
+			}
+		}
+
+		private void reportFinished(boolean haltedDuringProcess) {
+			ResultBuffer merged = new ResultBuffer();
+			for (ResultBuffer buffer : buffers) {
+				buffer.mergeTo(merged);
+			}
+			callback.onFinished(finishedJobCount.intValue(), merged.files, merged.log, merged.exceptions, haltedDuringProcess);
+		}
+
+		synchronized boolean addJob() {
+			if (canceled || finished.get() || closed) {
+				return false;
+			}
+			jobCount++;
+			return true;
+		}
+
+		synchronized void close() {
+			closed = true;
+			checkFinished();
+		}
+
+		void cancel() {
+			canceled = true;
+			shutdownPools(true);
+		}
+
+		boolean isCanceled() {
+			return canceled;
+		}
+	}
+
+	/**
+	 * Results of the jobs finished by one thread; only locked by its owner, except while merging
+	 */
+	private static class ResultBuffer {
+		private final StringBuilder log = new StringBuilder();
+		private final List<File> files = new ArrayList<>();
+		private final List<Exception> exceptions = new ArrayList<>();
+
+		synchronized void add(Result result) {
+			if (result.log != null && result.log.length() > 0) {
+				log.append(result.log).append("\n");
+			}
+			if (result.processedFiles != null) {
+				files.addAll(result.processedFiles);
+			}
+			if (result.exception != null) {
+				exceptions.add(result.exception);
+			}
+		}
+
+		synchronized void mergeTo(ResultBuffer target) {
+			target.log.append(log);
+			target.files.addAll(files);
+			target.exceptions.addAll(exceptions);
+		}
 	}
 
 	public interface Callback {
 		void onProgress(float percent);
 
 		void onFinished(int finishedJobs, List<File> outFiles, StringBuilder log, List<Exception> exceptions, boolean haltedDuringProcess);
+
+		/**
+		 * Called as soon as a part of a job created files, before the job is finished
+		 *
+		 * @param files created files
+		 */
+		default void onFilesCreated(List<File> files) {
+		}
 	}
 }
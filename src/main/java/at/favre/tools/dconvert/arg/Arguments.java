@@ -30,7 +30,7 @@ import java.util.*;
  * Handles all the arguments that can be set in the dconvert
  */
 public class Arguments implements Serializable {
-	private static final long serialVersionUID = 7;
+	private static final long serialVersionUID = 11;
 
 	public static final float DEFAULT_SCALE = 3f;
 	public static final float DEFAULT_COMPRESSION_QUALITY = 0.9f;
@@ -42,10 +42,17 @@ public class Arguments implements Serializable {
 	public static final EScaleMode DEFAULT_SCALE_TYPE = EScaleMode.FACTOR;
 	public static final EScalingAlgorithm DEFAULT_UPSCALING_QUALITY = EScalingAlgorithm.LANCZOS3;
 	public static final EScalingAlgorithm DEFAULT_DOWNSCALING_QUALITY = EScalingAlgorithm.LANCZOS3;
+	public static final float DEFAULT_CASCADE_MAX_RATIO = 2f;
+	public static final int DEFAULT_PREFETCH_COUNT = 2;
+	/**
+	 * Post processor tools per available processor by default; more than one, so the startup and file I/O of one tool
+	 * overlap with the compression of another
+	 */
+	public static final int DEFAULT_POST_PROCESSOR_THREADS_PER_PROCESSOR = 2;
 
 
 	public final static Arguments START_GUI = new Arguments(null, null, 0.27346f, null, null, null, null, null, 0.9362f, 996254, false,
-			false, false, false, false, false, false, false, false, false, false, false, false, null, false, false);
+			false, false, false, false, false, false, false, false, false, false, false, false, null, false, false, false, DEFAULT_CASCADE_MAX_RATIO, 0, 0, DEFAULT_PREFETCH_COUNT);
 
 	public final File src;
 	public final File dst;
@@ -73,13 +80,19 @@ public class Arguments implements Serializable {
 	public final boolean iosCreateImagesetFolders;
 	public final boolean guiAdvancedOptions;
 	public final boolean clearDirBeforeConvert;
+	public final boolean enableCascadeScaling;
+	public final float cascadeMaxRatio;
+	public final int memoryBudgetMb;
+	public final int postProcessorThreadCount;
+	public final int prefetchCount;
 	public transient final List<File> filesToProcess;
 
 
 	public Arguments(File src, File dst, float scale, Set<EPlatform> platform, EOutputCompressionMode outputCompressionMode,
 	                 EScaleMode scaleMode, EScalingAlgorithm downScalingAlgorithm, EScalingAlgorithm upScalingAlgorithm, float compressionQuality, int threadCount, boolean skipExistingFiles, boolean skipUpscaling,
 	                 boolean verboseLog, boolean includeAndroidLdpiTvdpi, boolean haltOnError, boolean createMipMapInsteadOfDrawableDir,
-	                 boolean iosCreateImagesetFolders, boolean enablePngCrush, boolean enableMozJpeg, boolean postConvertWebp, boolean enableAntiAliasing, boolean dryRun, boolean keepUnoptimizedFilesPostProcessor, RoundingHandler.Strategy roundingHandler, boolean guiAdvancedOptions, boolean clearDirBeforeConvert) {
+	                 boolean iosCreateImagesetFolders, boolean enablePngCrush, boolean enableMozJpeg, boolean postConvertWebp, boolean enableAntiAliasing, boolean dryRun, boolean keepUnoptimizedFilesPostProcessor, RoundingHandler.Strategy roundingHandler, boolean guiAdvancedOptions, boolean clearDirBeforeConvert,
+	                 boolean enableCascadeScaling, float cascadeMaxRatio, int memoryBudgetMb, int postProcessorThreadCount, int prefetchCount) {
 		this.dst = dst;
 		this.src = src;
 		this.scale = scale;
@@ -106,6 +119,11 @@ public class Arguments implements Serializable {
 		this.roundingHandler = roundingHandler;
 		this.guiAdvancedOptions = guiAdvancedOptions;
 		this.clearDirBeforeConvert = clearDirBeforeConvert;
+		this.enableCascadeScaling = enableCascadeScaling;
+		this.cascadeMaxRatio = cascadeMaxRatio;
+		this.memoryBudgetMb = memoryBudgetMb;
+		this.postProcessorThreadCount = postProcessorThreadCount;
+		this.prefetchCount = prefetchCount;
 
 		this.filesToProcess = new ArrayList<>();
 
@@ -127,7 +145,7 @@ public class Arguments implements Serializable {
 
 	public Arguments() {
 		this(null, null, DEFAULT_SCALE, DEFAULT_PLATFORM, DEFAULT_OUT_COMPRESSION, DEFAULT_SCALE_TYPE, DEFAULT_DOWNSCALING_QUALITY, DEFAULT_UPSCALING_QUALITY, DEFAULT_COMPRESSION_QUALITY, DEFAULT_THREAD_COUNT,
-				false, false, true, false, false, false, false, false, false, false, false, false, false, DEFAULT_ROUNDING_STRATEGY, false, false);
+				false, false, true, false, false, false, false, false, false, false, false, false, false, DEFAULT_ROUNDING_STRATEGY, false, false, false, DEFAULT_CASCADE_MAX_RATIO, 0, 0, DEFAULT_PREFETCH_COUNT);
 	}
 
 	public double round(double raw) {
@@ -163,6 +181,11 @@ public class Arguments implements Serializable {
 				", iosCreateImagesetFolders=" + iosCreateImagesetFolders +
 				", guiAdvancedOptions=" + guiAdvancedOptions +
 				", clearDirBeforeConvert=" + clearDirBeforeConvert +
+				", enableCascadeScaling=" + enableCascadeScaling +
+				", cascadeMaxRatio=" + cascadeMaxRatio +
+				", memoryBudgetMb=" + memoryBudgetMb +
+				", postProcessorThreadCount=" + postProcessorThreadCount +
+				", prefetchCount=" + prefetchCount +
 				", filesToProcess=" + filesToProcess +
 				'}';
 	}
@@ -192,6 +215,11 @@ public class Arguments implements Serializable {
 		if (iosCreateImagesetFolders != arguments.iosCreateImagesetFolders) return false;
 		if (guiAdvancedOptions != arguments.guiAdvancedOptions) return false;
 		if (clearDirBeforeConvert != arguments.clearDirBeforeConvert) return false;
+		if (enableCascadeScaling != arguments.enableCascadeScaling) return false;
+		if (Float.compare(arguments.cascadeMaxRatio, cascadeMaxRatio) != 0) return false;
+		if (memoryBudgetMb != arguments.memoryBudgetMb) return false;
+		if (postProcessorThreadCount != arguments.postProcessorThreadCount) return false;
+		if (prefetchCount != arguments.prefetchCount) return false;
 		if (src != null ? !src.equals(arguments.src) : arguments.src != null) return false;
 		if (dst != null ? !dst.equals(arguments.dst) : arguments.dst != null) return false;
 		if (platform != null ? !platform.equals(arguments.platform) : arguments.platform != null) return false;
@@ -232,10 +260,30 @@ public class Arguments implements Serializable {
 		result = 31 * result + (iosCreateImagesetFolders ? 1 : 0);
 		result = 31 * result + (guiAdvancedOptions ? 1 : 0);
 		result = 31 * result + (clearDirBeforeConvert ? 1 : 0);
+		result = 31 * result + (enableCascadeScaling ? 1 : 0);
+		result = 31 * result + (cascadeMaxRatio != +0.0f ? Float.floatToIntBits(cascadeMaxRatio) : 0);
+		result = 31 * result + memoryBudgetMb;
+		result = 31 * result + postProcessorThreadCount;
+		result = 31 * result + prefetchCount;
 		result = 31 * result + (filesToProcess != null ? filesToProcess.hashCode() : 0);
 		return result;
 	}
 
+	/**
+	 * @return how many post processor tools may run in parallel; independent of {@link #threadCount} since their
+	 * threads mostly wait for the external process
+	 */
+	public int getEffectivePostProcessorThreadCount() {
+		return postProcessorThreadCount > 0 ? postProcessorThreadCount : getDefaultPostProcessorThreadCount();
+	}
+
+	/**
+	 * @return post processor tools run in parallel if no count is given, see {@link #DEFAULT_POST_PROCESSOR_THREADS_PER_PROCESSOR}
+	 */
+	public static int getDefaultPostProcessorThreadCount() {
+		return Runtime.getRuntime().availableProcessors() * DEFAULT_POST_PROCESSOR_THREADS_PER_PROCESSOR;
+	}
+
 	public static Set<String> getSupportedFileTypes() {
 		Set<String> set = new HashSet<>();
 		for (ImageType imageType : ImageType.values()) {
@@ -275,6 +323,11 @@ public class Arguments implements Serializable {
 		private boolean iosCreateImagesetFolders = false;
 		private boolean guiAdvancedOptions;
 		private boolean clearDirBeforeConvert;
+		private boolean enableCascadeScaling = false;
+		private float cascadeMaxRatio = DEFAULT_CASCADE_MAX_RATIO;
+		private int memoryBudgetMb = 0;
+		private int postProcessorThreadCount = 0;
+		private int prefetchCount = DEFAULT_PREFETCH_COUNT;
 
 		public Builder(File src, float srcScale) {
 			this.src = src;
@@ -407,6 +460,40 @@ public class Arguments implements Serializable {
 			return this;
 		}
 
+		public Builder cascadeScaling(boolean b) {
+			this.enableCascadeScaling = b;
+			return this;
+		}
+
+		public Builder cascadeMaxRatio(float maxRatio) {
+			this.cascadeMaxRatio = maxRatio;
+			return this;
+		}
+
+		/**
+		 * @param megaBytes max estimated heap used by decoded images at once, 0 to use a default share of the max heap
+		 */
+		public Builder memoryBudget(int megaBytes) {
+			this.memoryBudgetMb = megaBytes;
+			return this;
+		}
+
+		/**
+		 * @param postProcessorThreadCount max parallel post processor tools, 0 to use {@link #DEFAULT_POST_PROCESSOR_THREADS_PER_PROCESSOR} per available processor
+		 */
+		public Builder postProcessorThreadCount(int postProcessorThreadCount) {
+			this.postProcessorThreadCount = postProcessorThreadCount;
+			return this;
+		}
+
+		/**
+		 * @param prefetchCount how many upcoming source images are decoded ahead of the converters, 0 to disable
+		 */
+		public Builder prefetch(int prefetchCount) {
+			this.prefetchCount = prefetchCount;
+			return this;
+		}
+
 		public Arguments build() throws InvalidArgumentException {
 			if (!internalSkipParamValidation) {
 				ResourceBundle bundle = ResourceBundle.getBundle("bundles.strings", Locale.getDefault());
@@ -452,10 +539,27 @@ public class Arguments implements Serializable {
 				if (downScalingAlgorithm == null || upScalingAlgorithm == null) {
 					throw new InvalidArgumentException(bundle.getString("error.missing.scalealgorithm"));
 				}
+
+				if (cascadeMaxRatio <= 1f) {
+					throw new InvalidArgumentException(MessageFormat.format(bundle.getString("error.invalid.cascadeRatio"), cascadeMaxRatio));
+				}
+
+				if (memoryBudgetMb < 0) {
+					throw new InvalidArgumentException(MessageFormat.format(bundle.getString("error.invalid.memoryBudget"), memoryBudgetMb));
+				}
+
+				if (postProcessorThreadCount < 0) {
+					throw new InvalidArgumentException(MessageFormat.format(bundle.getString("error.invalid.postProcessorThreads"), postProcessorThreadCount));
+				}
+
+				if (prefetchCount < 0) {
+					throw new InvalidArgumentException(MessageFormat.format(bundle.getString("error.invalid.prefetch"), prefetchCount));
+				}
 			}
 			return new Arguments(src, dst, srcScale, platform, outputCompressionMode, scaleType, downScalingAlgorithm, upScalingAlgorithm, compressionQuality, threadCount,
 					skipExistingFiles, skipUpscaling, verboseLog, includeAndroidLdpiTvdpi, haltOnError, createMipMapInsteadOfDrawableDir,
-					iosCreateImagesetFolders, enablePngCrush, enableMozJpeg, postConvertWebp, enableAntiAliasing, dryRun, keepUnoptimizedFilesPostProcessor, roundingStrategy, guiAdvancedOptions, clearDirBeforeConvert);
+					iosCreateImagesetFolders, enablePngCrush, enableMozJpeg, postConvertWebp, enableAntiAliasing, dryRun, keepUnoptimizedFilesPostProcessor, roundingStrategy, guiAdvancedOptions, clearDirBeforeConvert,
+					enableCascadeScaling, cascadeMaxRatio, memoryBudgetMb, postProcessorThreadCount, prefetchCount);
 		}
 	}
 
@@ -4,6 +4,7 @@ import at.favre.tools.dconvert.converters.scaling.NaiveGraphics2dAlgorithm;
 import at.favre.tools.dconvert.converters.scaling.ProgressiveAlgorithm;
 import at.favre.tools.dconvert.converters.scaling.ResambleAlgorithm;
 import at.favre.tools.dconvert.converters.scaling.ScaleAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.SeparableResampleAlgorithm;
 import com.mortennobel.imagescaling.ResampleFilters;
 
 import java.awt.*;
@@ -24,6 +25,15 @@ public enum EScalingAlgorithm {
     MITCHELL(new ResambleAlgorithm(ResampleFilters.getMitchellFilter()), "mitchell", Arrays.asList(Type.DOWNSCALING, Type.UPSCALING), true),
     BSPLINE(new ResambleAlgorithm(ResampleFilters.getBSplineFilter()), "bspline", Arrays.asList(Type.DOWNSCALING, Type.UPSCALING), false),
     HERMITE(new ResambleAlgorithm(ResampleFilters.getHermiteFilter()), "hermite", Arrays.asList(Type.DOWNSCALING, Type.UPSCALING), false),
+    LANCZOS1_SEPARABLE(new SeparableResampleAlgorithm(new ResambleAlgorithm.LanczosFilter(1)), "lanczos1Separable", Arrays.asList(Type.DOWNSCALING, Type.UPSCALING), false),
+    LANCZOS2_SEPARABLE(new SeparableResampleAlgorithm(new ResambleAlgorithm.LanczosFilter(2)), "lanczos2Separable", Arrays.asList(Type.DOWNSCALING, Type.UPSCALING), true),
+    LANCZOS3_SEPARABLE(new SeparableResampleAlgorithm(new ResambleAlgorithm.LanczosFilter(3)), "lanczos3Separable", Arrays.asList(Type.DOWNSCALING, Type.UPSCALING), true),
+    LANCZOS3_FAST(new SeparableResampleAlgorithm(new ResambleAlgorithm.LanczosFilter(3), SeparableResampleAlgorithm.Precision.FIXED_POINT), "lanczos3Fast", Arrays.asList(Type.DOWNSCALING, Type.UPSCALING), true),
+    LANCZOS4_SEPARABLE(new SeparableResampleAlgorithm(new ResambleAlgorithm.LanczosFilter(4)), "lanczos4Separable", Arrays.asList(Type.DOWNSCALING, Type.UPSCALING), false),
+    LANCZOS5_SEPARABLE(new SeparableResampleAlgorithm(new ResambleAlgorithm.LanczosFilter(5)), "lanczos5Separable", Arrays.asList(Type.DOWNSCALING, Type.UPSCALING), false),
+    MITCHELL_SEPARABLE(new SeparableResampleAlgorithm(ResampleFilters.getMitchellFilter()), "mitchellSeparable", Arrays.asList(Type.DOWNSCALING, Type.UPSCALING), true),
+    BSPLINE_SEPARABLE(new SeparableResampleAlgorithm(ResampleFilters.getBSplineFilter()), "bsplineSeparable", Arrays.asList(Type.DOWNSCALING, Type.UPSCALING), false),
+    HERMITE_SEPARABLE(new SeparableResampleAlgorithm(ResampleFilters.getHermiteFilter()), "hermiteSeparable", Arrays.asList(Type.DOWNSCALING, Type.UPSCALING), false),
     NEAREST_NEIGHBOR(new NaiveGraphics2dAlgorithm(RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR), "nearestNeighbor", Arrays.asList(Type.DOWNSCALING, Type.UPSCALING), true),
     BILINEAR_PROGRESSIVE(new ProgressiveAlgorithm(ProgressiveAlgorithm.Type.NOBEL_BILINEAR), "bilinearProgressive", Collections.singletonList(Type.DOWNSCALING), true),
     BICUBIC_PROGRESSIVE(new ProgressiveAlgorithm(ProgressiveAlgorithm.Type.NOBEL_BICUBUC), "bicubicProgressive", Collections.singletonList(Type.DOWNSCALING), true),
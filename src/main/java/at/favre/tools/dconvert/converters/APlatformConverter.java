@@ -22,15 +22,19 @@ import at.favre.tools.dconvert.arg.EScaleMode;
 import at.favre.tools.dconvert.arg.ImageType;
 import at.favre.tools.dconvert.converters.descriptors.DensityDescriptor;
 import at.favre.tools.dconvert.converters.scaling.ImageHandler;
+import at.favre.tools.dconvert.converters.scaling.ScaleCascade;
 import at.favre.tools.dconvert.util.DensityBucketUtil;
-import at.favre.tools.dconvert.util.ImageUtil;
+import at.favre.tools.dconvert.util.ImageProbe;
 import at.favre.tools.dconvert.util.LoadedImage;
 import at.favre.tools.dconvert.util.MiscUtil;
+import at.favre.tools.dconvert.util.SourceImageCache;
 
 import java.awt.*;
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * The main logic of all platform converters
@@ -39,62 +43,129 @@ public abstract class APlatformConverter<T extends DensityDescriptor> implements
 
 	@Override
 	public Result convert(File srcImage, Arguments args) {
+		return convert(srcImage, args, new SourceImageCache());
+	}
+
+	@Override
+	public Result convert(File srcImage, Arguments args, SourceImageCache imageCache) {
+		return plan(srcImage, args, imageCache).runAll();
+	}
+
+	@Override
+	public ConversionPlan plan(File srcImage, Arguments args, SourceImageCache imageCache) {
+		LazySourceImage source = new LazySourceImage(srcImage, imageCache);
 		try {
 			File destinationFolder = args.dst;
-			LoadedImage imageData = ImageUtil.loadImage(srcImage);
 			String targetImageFileName = MiscUtil.getFileNameWithoutExtension(srcImage);
 			ImageType imageType = Arguments.getImageType(srcImage);
 			boolean isNinePatch = AndroidConverter.isNinePatch(srcImage) && getClass() == AndroidConverter.class;
 
+			// planning only needs the header, the pixels are decoded by the first density which is not skipped
+			Dimension srcDimension = ImageProbe.probe(srcImage).getDimension();
+
 			StringBuilder log = new StringBuilder();
 			log.append(getConverterName()).append(": ").append(targetImageFileName).append(" ")
-					.append(imageData.getImage().getWidth()).append("x").append(imageData.getImage().getHeight()).append(" (").append(args.scale).append(args.scaleMode == EScaleMode.FACTOR ? "x" : "dp").append(")\n");
+					.append(srcDimension.width).append("x").append(srcDimension.height).append(" (").append(args.scale).append(args.scaleMode == EScaleMode.FACTOR ? "x" : "dp").append(")\n");
 
-			Map<T, Dimension> densityMap = DensityBucketUtil.getDensityBuckets(usedOutputDensities(args), new Dimension(imageData.getImage().getWidth(), imageData.getImage().getHeight()), args, args.scale, isNinePatch);
+			Map<T, Dimension> densityMap = DensityBucketUtil.getDensityBuckets(usedOutputDensities(args), srcDimension, args, args.scale, isNinePatch);
 
 			File mainSubFolder = createMainSubFolder(destinationFolder, targetImageFileName, args);
 
 			onPreExecute(mainSubFolder, targetImageFileName, usedOutputDensities(args), imageType, args);
 
-			List<File> allResultingFiles = new ArrayList<>();
-
-			for (Map.Entry<T, Dimension> entry : densityMap.entrySet()) {
-				File dstFolder = createFolderForOutputFile(mainSubFolder, entry.getKey(), entry.getValue(), targetImageFileName, args);
+			List<Map.Entry<T, Dimension>> densityEntries = new ArrayList<>(densityMap.entrySet());
+			List<Callable<Result>> tasks = new ArrayList<>(densityEntries.size());
+			Runnable onFinished;
+
+			if (args.enableCascadeScaling) {
+				// smaller densities depend on the larger ones, so they are converted in order in a single task
+				densityEntries.sort((o1, o2) -> Long.compare((long) o2.getValue().width * o2.getValue().height, (long) o1.getValue().width * o1.getValue().height));
+				ScaleCascade cascade = new ScaleCascade(args.cascadeMaxRatio);
+				tasks.add(() -> {
+					StringBuilder taskLog = new StringBuilder();
+					List<File> files = new ArrayList<>();
+					for (Map.Entry<T, Dimension> entry : densityEntries) {
+						Result result = convertDensity(entry.getKey(), entry.getValue(), source, imageType, mainSubFolder, targetImageFileName, isNinePatch, cascade, args);
+						taskLog.append(result.log);
+						files.addAll(result.processedFiles);
+					}
+					return new Result(taskLog.toString(), files);
+				});
+				onFinished = () -> {
+					cascade.flush();
+					finish(source, args);
+				};
+			} else {
+				for (Map.Entry<T, Dimension> entry : densityEntries) {
+					tasks.add(() -> convertDensity(entry.getKey(), entry.getValue(), source, imageType, mainSubFolder, targetImageFileName, isNinePatch, null, args));
+				}
+				onFinished = () -> finish(source, args);
+			}
 
-				if ((dstFolder.isDirectory() && dstFolder.exists()) || args.dryRun) {
-					File imageFile = new File(dstFolder, createDestinationFileNameWithoutExtension(entry.getKey(), entry.getValue(), targetImageFileName, args));
+			return new ConversionPlan(log.toString(), tasks, onFinished);
+		} catch (Exception e) {
+			source.close();
+			return new ConversionPlan(new Result(null, e, Collections.emptyList()));
+		}
+	}
 
-					log.append("process ").append(imageFile).append(" with ").append(entry.getValue().width).append("x").append(entry.getValue().height).append(" (x")
-							.append(entry.getKey().scale).append(") ").append(isNinePatch ? "(9-patch)" : "").append("\n");
+	/**
+	 * @param srcDimension dimension of the source image
+	 * @param args         all tool args
+	 * @return the biggest dimension this converter will create for given source or null if none
+	 */
+	public Dimension getLargestOutputDimension(Dimension srcDimension, Arguments args) throws IOException {
+		Dimension largest = null;
+		for (Dimension dimension : DensityBucketUtil.getDensityBuckets(usedOutputDensities(args), new Dimension(srcDimension), args, args.scale, false).values()) {
+			if (largest == null || (long) dimension.width * dimension.height > (long) largest.width * largest.height) {
+				largest = dimension;
+			}
+		}
+		return largest;
+	}
 
-					if (!args.dryRun) {
-						List<File> files = new ImageHandler(args).saveToFile(imageFile, imageData, entry.getValue(), isNinePatch);
+	private Result convertDensity(T density, Dimension dimension, LazySourceImage source, ImageType imageType, File mainSubFolder, String targetImageFileName,
+	                              boolean isNinePatch, ScaleCascade cascade, Arguments args) throws Exception {
+		StringBuilder log = new StringBuilder();
+		List<File> allResultingFiles = new ArrayList<>();
+		File dstFolder = createFolderForOutputFile(mainSubFolder, density, dimension, targetImageFileName, args);
 
-						allResultingFiles.addAll(files);
+		if ((dstFolder.isDirectory() && dstFolder.exists()) || args.dryRun) {
+			File imageFile = new File(dstFolder, createDestinationFileNameWithoutExtension(density, dimension, targetImageFileName, args));
 
-						for (File file : files) {
-							log.append("compressed to disk: ").append(file).append(" (").append(String.format(Locale.US, "%.2f", (float) file.length() / 1024f)).append("kB)\n");
-						}
+			log.append("process ").append(imageFile).append(" with ").append(dimension.width).append("x").append(dimension.height).append(" (x")
+					.append(density.scale).append(") ").append(isNinePatch ? "(9-patch)" : "").append("\n");
 
-						if (files.isEmpty()) {
-							log.append("files skipped\n");
-						}
-					}
-				} else {
-					throw new IllegalStateException("could not create " + dstFolder);
+			if (!args.dryRun) {
+				ImageHandler imageHandler = new ImageHandler(args);
+				List<File> files = Collections.emptyList();
+				if (!imageHandler.getCompressionsToCreate(imageFile, imageType).isEmpty()) {
+					files = imageHandler.saveToFile(imageFile, source.get(), dimension, isNinePatch, cascade);
 				}
-			}
 
-			onPostExecute(args);
+				allResultingFiles.addAll(files);
 
-			imageData.getImage().flush();
+				for (File file : files) {
+					log.append("compressed to disk: ").append(file).append(" (").append(String.format(Locale.US, "%.2f", (float) file.length() / 1024f)).append("kB)\n");
+				}
 
-			return new Result(log.toString(), allResultingFiles);
-		} catch (Exception e) {
-			return new Result(null, e, Collections.emptyList());
+				if (files.isEmpty()) {
+					log.append("files skipped\n");
+				}
+			}
+		} else {
+			throw new IllegalStateException("could not create " + dstFolder);
 		}
+		return new Result(log.toString(), allResultingFiles);
 	}
 
+	private void finish(LazySourceImage source, Arguments args) {
+		try {
+			onPostExecute(args);
+		} finally {
+			source.close();
+		}
+	}
 
 	public abstract List<T> usedOutputDensities(Arguments arguments);
 
@@ -109,4 +180,35 @@ public abstract class APlatformConverter<T extends DensityDescriptor> implements
 	public abstract void onPreExecute(File dstFolder, String targetFileName, List<T> densityDescriptions, ImageType imageType, Arguments arguments) throws Exception;
 
 	public abstract void onPostExecute(Arguments arguments);
+
+	/**
+	 * Acquires the shared source image from the cache on first use only, so dry runs and skipped outputs never decode it
+	 */
+	private static class LazySourceImage {
+		private final File srcFile;
+		private final SourceImageCache imageCache;
+		private boolean acquired;
+		private LoadedImage image;
+
+		LazySourceImage(File srcFile, SourceImageCache imageCache) {
+			this.srcFile = srcFile;
+			this.imageCache = imageCache;
+		}
+
+		synchronized LoadedImage get() throws Exception {
+			if (image == null) {
+				acquired = true;
+				image = imageCache.acquire(srcFile);
+			}
+			return image;
+		}
+
+		synchronized void close() {
+			if (acquired) {
+				imageCache.release(srcFile);
+			} else {
+				imageCache.skip(srcFile);
+			}
+		}
+	}
 }
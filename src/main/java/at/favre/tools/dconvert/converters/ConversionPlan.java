@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 Patrick Favre-Bulle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package at.favre.tools.dconvert.converters;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * The conversion of one source file with one converter split into independent tasks (usually one per output density),
+ * which can be run in any order and in parallel. All tasks share the same decoded source image. The merged
+ * result is returned by the task finishing last.
+ */
+public class ConversionPlan {
+	private final String log;
+	private final List<Callable<Result>> tasks;
+	private final Runnable onFinished;
+	private final Result[] taskResults;
+	private final AtomicInteger remainingTasks;
+	private volatile Result result;
+
+	/**
+	 * @param log        log of the planning step
+	 * @param tasks      independent tasks, each creating a part of the result
+	 * @param onFinished called once after the last task finished, e.g. to release resources
+	 */
+	public ConversionPlan(String log, List<Callable<Result>> tasks, Runnable onFinished) {
+		this.log = log;
+		this.tasks = tasks;
+		this.onFinished = onFinished;
+		this.taskResults = new Result[tasks.size()];
+		this.remainingTasks = new AtomicInteger(tasks.size());
+
+		if (tasks.isEmpty()) {
+			finish();
+		}
+	}
+
+	/**
+	 * Creates a plan without any tasks, e.g. if the planning failed
+	 */
+	public ConversionPlan(Result result) {
+		this.log = null;
+		this.tasks = Collections.emptyList();
+		this.onFinished = null;
+		this.taskResults = new Result[0];
+		this.remainingTasks = new AtomicInteger(0);
+		this.result = result;
+	}
+
+	public int getTaskCount() {
+		return tasks.size();
+	}
+
+	/**
+	 * Runs the task with given index; every task must be run exactly once.
+	 *
+	 * @param index of the task
+	 * @return the merged result if this was the last unfinished task, null otherwise
+	 */
+	public Result runTask(int index) {
+		return runTask(index, null);
+	}
+
+	/**
+	 * Same as {@link #runTask(int)}, but calls the given listener with the result of this task before it is counted
+	 * as finished. Anything thrown by the task or the listener is reported as failed task, so the task is always
+	 * counted.
+	 *
+	 * @param index        of the task
+	 * @param taskListener may be null
+	 * @return the merged result if this was the last unfinished task, null otherwise
+	 */
+	public Result runTask(int index, Consumer<Result> taskListener) {
+		Result taskResult;
+		try {
+			taskResult = tasks.get(index).call();
+		} catch (Throwable e) {
+			taskResult = failed(e);
+		}
+
+		if (taskListener != null) {
+			try {
+				taskListener.accept(taskResult);
+			} catch (Throwable e) {
+				taskResult = failed(e);
+			}
+		}
+		taskResults[index] = taskResult;
+
+		if (remainingTasks.decrementAndGet() == 0) {
+			return finish();
+		}
+		return null;
+	}
+
+	/**
+	 * Runs all tasks in the current thread
+	 *
+	 * @return merged result
+	 */
+	public Result runAll() {
+		for (int i = 0; i < tasks.size(); i++) {
+			runTask(i);
+		}
+		return getResult();
+	}
+
+	/**
+	 * @return the merged result of all tasks or null if not all are finished
+	 */
+	public Result getResult() {
+		return result;
+	}
+
+	private synchronized Result finish() {
+		Result finishResult = null;
+		if (onFinished != null) {
+			try {
+				onFinished.run();
+			} catch (Throwable e) {
+				finishResult = failed(e);
+			}
+		}
+
+		StringBuilder sb = new StringBuilder(log);
+		List<File> files = new ArrayList<>();
+		for (Result taskResult : taskResults) {
+			if (taskResult.exception != null) {
+				result = new Result(null, taskResult.exception, Collections.emptyList());
+				return result;
+			}
+			if (taskResult.log != null) {
+				sb.append(taskResult.log);
+			}
+			files.addAll(taskResult.processedFiles);
+		}
+		result = finishResult != null ? finishResult : new Result(sb.toString(), files);
+		return result;
+	}
+
+	/**
+	 * Errors are wrapped, since results only carry exceptions
+	 */
+	private static Result failed(Throwable t) {
+		return new Result(null, t instanceof Exception ? (Exception) t : new ExecutionException(t), Collections.emptyList());
+	}
+}
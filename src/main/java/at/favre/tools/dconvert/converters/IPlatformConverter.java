@@ -18,6 +18,7 @@
 package at.favre.tools.dconvert.converters;
 
 import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.util.SourceImageCache;
 
 import java.io.File;
 
@@ -35,6 +36,29 @@ public interface IPlatformConverter {
 	 */
 	Result convert(File srcImageFile, Arguments arguments);
 
+	/**
+	 * Converts the given file to all needed densities, borrowing the decoded source from given cache so
+	 * it can be shared with other converters. The source will be released to the cache after this call.
+	 *
+	 * @param srcImageFile source image file to be used as base to scale
+	 * @param arguments    all tool args
+	 * @param imageCache   shared cache the source image will be acquired from
+	 * @return result
+	 */
+	Result convert(File srcImageFile, Arguments arguments, SourceImageCache imageCache);
+
+	/**
+	 * Prepares the conversion of the given file (acquires the source from the cache, creates the folders) and splits
+	 * the rest into independent tasks, usually one per output density, that can be run in parallel. The source will
+	 * be released to the cache after the last task finished or immediately if the planning failed.
+	 *
+	 * @param srcImageFile source image file to be used as base to scale
+	 * @param arguments    all tool args
+	 * @param imageCache   shared cache the source image will be acquired from
+	 * @return plan containing the tasks or the failed result
+	 */
+	ConversionPlan plan(File srcImageFile, Arguments arguments, SourceImageCache imageCache);
+
 	/**
 	 * Cleans (ie. deletes) all dirs that would be generated with this converter and arguments
 	 *
@@ -0,0 +1,26 @@
+package at.favre.tools.dconvert.converters.scaling;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A scale algorithm where every target row only depends on nearby source rows (e.g. separable filters), so the result
+ * can be computed in independent horizontal bands, see {@link ParallelScaleAlgorithm}. Every band must be exactly equal
+ * to the same rows of a single {@link #scale(BufferedImage, int, int)} call, so the output does not depend on the band
+ * count
+ */
+public interface BandScaleAlgorithm extends ScaleAlgorithm {
+
+    /**
+     * @return the empty target image of given size, which is filled by {@link #scaleBand(BufferedImage, BufferedImage, int, int)}
+     */
+    BufferedImage createTarget(BufferedImage imageToScale, int dWidth, int dHeight);
+
+    /**
+     * Scales the rows fromY (inclusive) to toY (exclusive) of the target; must be safe to call concurrently for
+     * different bands of the same target
+     *
+     * @param imageToScale source, only read
+     * @param target       created by {@link #createTarget(BufferedImage, int, int)}
+     */
+    void scaleBand(BufferedImage imageToScale, BufferedImage target, int fromY, int toY);
+}
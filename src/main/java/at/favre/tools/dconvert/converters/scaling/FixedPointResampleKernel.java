@@ -0,0 +1,179 @@
+package at.favre.tools.dconvert.converters.scaling;
+
+import at.favre.tools.dconvert.converters.scaling.SeparableResampleAlgorithm.Contributions;
+
+import java.util.Arrays;
+
+/**
+ * Integer kernels of {@link SeparableResampleAlgorithm}: weights are 16.16 fixed-point numbers which sum up to exactly
+ * one per destination pixel, channels are accumulated in ints and clamped when rounded back to 8 bit. The horizontal pass
+ * accumulates two channels in one long (one in each half), which halves the multiplications. The weights of a
+ * pixel are off by at most n * 2^-16 in total for n contributions, so with up to 256 contributions (Lanczos3 down to
+ * about 1/40 of the source size) every pass differs from the float kernels by at most one per channel. Premultiplied
+ * colors are rounded to 8 bit before filtering, so colors of mostly transparent pixels may differ more.
+ */
+class FixedPointResampleKernel implements ResampleKernel {
+    private static final int SHIFT = 16;
+    private static final int ONE = 1 << SHIFT;
+    private static final int HALF = ONE >> 1;
+
+    @Override
+    public void scaleHorizontally(int[] src, int srcOffset, int srcWidth, int rowCount, Alpha alpha, byte[] dst, int dstWidth, Contributions contributions) {
+        int stride = contributions.stride;
+        int[] weights = contributions.getFixedPointWeights();
+        long[] rows = SeparableResampleAlgorithm.getLongBuffer(srcWidth * 4);
+        for (int y = 0; y < rowCount; y += 2) {
+            int srcRow = srcOffset + y * srcWidth;
+            int nextRow = y + 1 < rowCount ? srcRow + srcWidth : srcRow;
+            unpackRow(src, srcRow, alpha, srcWidth, rows, 0);
+            unpackRow(src, nextRow, alpha, srcWidth, rows, 2);
+
+            int dstRow = y * dstWidth * 4;
+            int dstNextRow = dstRow + dstWidth * 4;
+            boolean writeNext = y + 1 < rowCount;
+            for (int x = 0; x < dstWidth; x++) {
+                long ag0 = 0, rb0 = 0, ag1 = 0, rb1 = 0;
+                int start = x * stride;
+                int end = start + contributions.count[x];
+                for (int i = start; i < end; i++) {
+                    int j = contributions.pixel[i] << 2;
+                    long weight = weights[i];
+                    ag0 += weight * rows[j];
+                    rb0 += weight * rows[j + 1];
+                    ag1 += weight * rows[j + 2];
+                    rb1 += weight * rows[j + 3];
+                }
+                int k = dstRow + (x << 2);
+                dst[k] = (byte) toByte(high(ag0));
+                dst[k + 1] = (byte) toByte(high(rb0));
+                dst[k + 2] = (byte) toByte((int) ag0);
+                dst[k + 3] = (byte) toByte((int) rb0);
+                if (writeNext) {
+                    k = dstNextRow + (x << 2);
+                    dst[k] = (byte) toByte(high(ag1));
+                    dst[k + 1] = (byte) toByte(high(rb1));
+                    dst[k + 2] = (byte) toByte((int) ag1);
+                    dst[k + 3] = (byte) toByte((int) rb1);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void scaleVertically(byte[] src, int firstRow, int width, Alpha alpha, int[] dst, Contributions contributions) {
+        int stride = contributions.stride;
+        int[] weights = contributions.getFixedPointWeights();
+        int rowLength = width * 4;
+        int[] row = SeparableResampleAlgorithm.getIntBuffer(rowLength);
+        for (int y = 0; y < contributions.count.length; y++) {
+            Arrays.fill(row, 0, rowLength, 0);
+            int start = y * stride;
+            int end = start + contributions.count[y];
+            for (int i = start; i < end; i++) {
+                int srcRow = (contributions.pixel[i] - firstRow) * rowLength;
+                int weight = weights[i];
+                for (int j = 0; j < rowLength; j++) {
+                    row[j] += weight * (src[srcRow + j] & 0xFF);
+                }
+            }
+
+            int dstRow = (contributions.from + y) * width;
+            if (alpha == Alpha.PREMULTIPLIED) {
+                for (int x = 0, j = 0; x < width; x++, j += 4) {
+                    int a = toByte(row[j]);
+                    dst[dstRow + x] = a == 0 ? 0 : a << 24 | unpremultiply(row[j + 1], row[j]) << 16 | unpremultiply(row[j + 2], row[j]) << 8 | unpremultiply(row[j + 3], row[j]);
+                }
+            } else {
+                for (int x = 0, j = 0; x < width; x++, j += 4) {
+                    dst[dstRow + x] = toByte(row[j]) << 24 | toByte(row[j + 1]) << 16 | toByte(row[j + 2]) << 8 | toByte(row[j + 3]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Unpacks a row of argb pixels into two longs per pixel, holding (a, g) and (r, b) in their upper and lower half,
+     * at every 4th index starting with offset. Premultiplied channels are rounded to 8 bit.
+     */
+    private static void unpackRow(int[] src, int srcRow, Alpha alpha, int srcWidth, long[] rows, int offset) {
+        if (alpha == Alpha.PREMULTIPLIED) {
+            for (int x = 0, j = offset; x < srcWidth; x++, j += 4) {
+                int pixel = src[srcRow + x];
+                int a = pixel >>> 24;
+                rows[j] = (long) a << 32 | premultiply((pixel >> 8) & 0xFF, a);
+                rows[j + 1] = (long) premultiply((pixel >> 16) & 0xFF, a) << 32 | premultiply(pixel & 0xFF, a);
+            }
+        } else {
+            int alphaMask = alpha == Alpha.OPAQUE ? 0xFF000000 : 0;
+            for (int x = 0, j = offset; x < srcWidth; x++, j += 4) {
+                int pixel = src[srcRow + x] | alphaMask;
+                rows[j] = (long) (pixel >>> 24) << 32 | (pixel >> 8) & 0xFF;
+                rows[j + 1] = (long) ((pixel >> 16) & 0xFF) << 32 | pixel & 0xFF;
+            }
+        }
+    }
+
+    /**
+     * @return round(channel * alpha / 255) without division
+     */
+    private static int premultiply(int channel, int alpha) {
+        int value = channel * alpha + 128;
+        return (value + (value >> 8)) >> 8;
+    }
+
+    /**
+     * @param value accumulated premultiplied channel
+     * @param alpha accumulated alpha, at least one half
+     */
+    private static int unpremultiply(int value, int alpha) {
+        if (value <= 0) {
+            return 0;
+        }
+        return (int) Math.min(255, ((long) value * 255 + (alpha >> 1)) / alpha);
+    }
+
+    /**
+     * Converts normalized float weights to fixed-point, the rounding error of the sum is added to the biggest weight
+     */
+    static int[] toFixedPoint(float[] weight, int[] count, int stride) {
+        int[] fixed = new int[weight.length];
+        for (int x = 0; x < count.length; x++) {
+            int start = x * stride;
+            int sum = 0;
+            int biggest = start;
+            for (int i = start; i < start + count[x]; i++) {
+                fixed[i] = Math.round(weight[i] * ONE);
+                sum += fixed[i];
+                if (fixed[i] > fixed[biggest]) {
+                    biggest = i;
+                }
+            }
+            if (sum != 0) {
+                fixed[biggest] += ONE - sum;
+            }
+        }
+        return fixed;
+    }
+
+    /**
+     * @return the upper of two sums accumulated in one long; the lower one is just the lower int, even if negative
+     */
+    private static int high(long sums) {
+        return (int) ((sums - (int) sums) >> 32);
+    }
+
+    private static int toByte(int value) {
+        if (value <= 0) {
+            return 0;
+        }
+        if (value >= 255 << SHIFT) {
+            return 255;
+        }
+        return (value + HALF) >> SHIFT;
+    }
+
+    @Override
+    public String toString() {
+        return "fixedPoint";
+    }
+}
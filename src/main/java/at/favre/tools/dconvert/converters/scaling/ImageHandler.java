@@ -12,16 +12,23 @@ import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
-import javax.imageio.stream.FileImageOutputStream;
 import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.ConvolveOp;
 import java.awt.image.Kernel;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import java.util.stream.Collectors;
 
 /**
@@ -31,7 +38,7 @@ public class ImageHandler {
     private static final Color DEFAULT_COLOR = Color.white;
     public static final boolean TEST_MODE = false;
     public static final ConvolveOp OP_ANTIALIAS = new ConvolveOp(new Kernel(3, 3, new float[]{.0f, .08f, .0f, .08f, .68f, .08f, .0f, .08f, .0f}), ConvolveOp.EDGE_NO_OP, null);
-    public static Map<ScaleAlgorithm, Long> traceMap = new HashMap<>();
+    public static final Map<ScaleAlgorithm, Long> traceMap = new HashMap<>();
     private Arguments args;
 
     public ImageHandler(Arguments args) {
@@ -39,59 +46,132 @@ public class ImageHandler {
     }
 
     public List<File> saveToFile(File targetFile, LoadedImage imageData, Dimension targetDimension, boolean isNinePatch) throws Exception {
+        return saveToFile(targetFile, imageData, targetDimension, isNinePatch, null);
+    }
 
-        List<File> files = new ArrayList<>(2);
-        List<ImageType.ECompression> compressionList = Arguments.getOutCompressionForType(args.outputCompressionMode, Arguments.getImageType(imageData.getSourceFile()));
-        for (ImageType.ECompression compression : compressionList) {
-            File imageFile = new File(targetFile.getAbsolutePath() + "." + compression.extension);
-
-            if (imageFile.exists() && args.skipExistingFiles) {
-                break;
-            }
-
-            List<ScaleAlgorithm> algorithms = getScaleAlgorithm(getScalingAlgorithm(getScalingType(imageData, targetDimension)), getScalingType(imageData, targetDimension));
+    /**
+     * Same as {@link #saveToFile(File, LoadedImage, Dimension, boolean)} but downscaled targets will be derived from the
+     * closest larger image already scaled with the given cascade if possible.
+     *
+     * @param cascade of the current source, may be null to always scale from the source; targets should be
+     *                passed from largest to smallest
+     */
+    public List<File> saveToFile(File targetFile, LoadedImage imageData, Dimension targetDimension, boolean isNinePatch, ScaleCascade cascade) throws Exception {
 
-            for (ScaleAlgorithm scaleAlgorithm : algorithms) {
+        List<ImageType.ECompression> compressionList = getCompressionsToCreate(targetFile, Arguments.getImageType(imageData.getSourceFile()));
 
-                if (!traceMap.containsKey(scaleAlgorithm)) {
-                    traceMap.put(scaleAlgorithm, 0L);
-                }
+        List<File> files = new ArrayList<>(2);
+        EScalingAlgorithm.Type scalingType = getScalingType(imageData, targetDimension);
+        List<ScaleAlgorithm> algorithms = getScaleAlgorithm(getScalingAlgorithm(scalingType), scalingType);
 
-                BufferedImage scaledImage;
-                if (isNinePatch && compression == ImageType.ECompression.PNG) {
-                    scaledImage = new NinePatchScaler().scale(imageData.getImage(), targetDimension, getAsScalingAlgorithm(scaleAlgorithm, compression));
-                } else {
-                    long startNanos = System.nanoTime();
-                    scaledImage = scale(scaleAlgorithm, imageData.getImage(), targetDimension.width, targetDimension.height, compression, DEFAULT_COLOR);
-                    traceMap.put(scaleAlgorithm, traceMap.get(scaleAlgorithm) + (System.nanoTime() - startNanos));
+        for (ScaleAlgorithm scaleAlgorithm : algorithms) {
+            boolean useCascade = cascade != null && !isNinePatch && !imageData.isVector() && scalingType == EScalingAlgorithm.Type.DOWNSCALING;
+            ScaledRaster raster;
+            if (imageData.isVector()) {
+                raster = new ScaledRaster(imageData, targetDimension, scaleAlgorithm);
+            } else if (useCascade) {
+                raster = cascade.createRaster(imageData.getImage(), targetDimension, scaleAlgorithm);
+            } else {
+                raster = new ScaledRaster(imageData.getImage(), null, targetDimension, scaleAlgorithm);
+            }
+            List<byte[]> encodedImages;
+            try {
+                encodedImages = encodeAll(imageData, compressionList, isNinePatch, raster);
+            } finally {
+                if (!useCascade) {
+                    raster.flush();
                 }
+            }
 
+            for (int i = 0; i < compressionList.size(); i++) {
+                File imageFile = new File(targetFile.getAbsolutePath() + "." + compressionList.get(i).extension);
                 File fileToSave = imageFile;
 
                 if (algorithms.size() > 1) {
                     fileToSave = new File(imageFile.getParentFile(), MiscUtil.getFileNameWithoutExtension(imageFile) + "." + scaleAlgorithm.toString() + "." + MiscUtil.getFileExtension(imageFile));
                 }
 
-                if (compression == ImageType.ECompression.JPG) {
-                    compressJpeg(scaledImage, null, args.compressionQuality, fileToSave);
-                } else {
-                    ImageIO.write(scaledImage, compression.name().toLowerCase(), fileToSave);
-                }
-                scaledImage.flush();
+                Files.write(fileToSave.toPath(), encodedImages.get(i));
                 files.add(imageFile);
             }
         }
         return files;
     }
 
-    private void compressJpeg(BufferedImage bufferedImage, CompoundDirectory exif, float quality, File targetFile) throws IOException {
+    /**
+     * Returns the compressions {@link #saveToFile(File, LoadedImage, Dimension, boolean)} will create for a target,
+     * without existing files if they should be skipped. Only checks the file system, so it can be used to find out
+     * if the source has to be decoded at all.
+     *
+     * @param targetFile target without extension
+     * @param sourceType type of the source image
+     * @return compressions to create, may be empty
+     */
+    public List<ImageType.ECompression> getCompressionsToCreate(File targetFile, ImageType sourceType) {
+        List<ImageType.ECompression> compressionList = new ArrayList<>(2);
+        for (ImageType.ECompression compression : Arguments.getOutCompressionForType(args.outputCompressionMode, sourceType)) {
+            if (new File(targetFile.getAbsolutePath() + "." + compression.extension).exists() && args.skipExistingFiles) {
+                break;
+            }
+            compressionList.add(compression);
+        }
+        return compressionList;
+    }
+
+    /**
+     * Encodes all compressions concurrently; the others are forked into the current pool (so they stay within its
+     * parallelism) and joined after the first one is done in the calling thread
+     */
+    private List<byte[]> encodeAll(LoadedImage imageData, List<ImageType.ECompression> compressionList, boolean isNinePatch, ScaledRaster raster) throws Exception {
+        List<ForkJoinTask<byte[]>> tasks = new ArrayList<>(compressionList.size());
+        for (int i = 1; i < compressionList.size(); i++) {
+            Variant variant = new Variant(raster.getScaleChain(), compressionList.get(i), raster.algorithm, isNinePatch);
+            tasks.add(new EncodeTask(() -> imageData.getEncodedVariant(variant, () -> scaleAndCompress(imageData, variant, raster))).fork());
+        }
+
+        List<byte[]> encodedImages = new ArrayList<>(compressionList.size());
+        if (!compressionList.isEmpty()) {
+            Variant variant = new Variant(raster.getScaleChain(), compressionList.get(0), raster.algorithm, isNinePatch);
+            encodedImages.add(imageData.getEncodedVariant(variant, () -> scaleAndCompress(imageData, variant, raster)));
+        }
+
+        for (ForkJoinTask<byte[]> task : tasks) {
+            encodedImages.add(EncodeTask.join(task));
+        }
+        return encodedImages;
+    }
+
+    private byte[] scaleAndCompress(LoadedImage imageData, Variant variant, ScaledRaster raster) throws Exception {
+        ImageType.ECompression compression = variant.compression;
+
+        BufferedImage outImage;
+        if (variant.isNinePatch && compression == ImageType.ECompression.PNG) {
+            outImage = new NinePatchScaler().scale(imageData.getImage(), raster.targetDimension, getAsScalingAlgorithm(variant.algorithm, compression));
+        } else {
+            outImage = prepareForCompression(raster.get(), compression, DEFAULT_COLOR);
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        if (compression == ImageType.ECompression.JPG) {
+            compressJpeg(outImage, null, args.compressionQuality, outputStream);
+        } else if (!ImageIO.write(outImage, compression.name().toLowerCase(), outputStream)) {
+            throw new IOException("no image writer found for " + compression);
+        }
+
+        if (!raster.isBackedBy(outImage) && outImage != imageData.getImage()) {
+            outImage.flush();
+        }
+        return outputStream.toByteArray();
+    }
+
+    private void compressJpeg(BufferedImage bufferedImage, CompoundDirectory exif, float quality, OutputStream targetStream) throws IOException {
         ImageWriter jpgWriter = ImageIO.getImageWritersByFormatName("jpg").next();
         ImageWriteParam jpgWriteParam = jpgWriter.getDefaultWriteParam();
         jpgWriteParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
         jpgWriteParam.setCompressionQuality(quality);
 
         ImageWriter writer = null;
-        try (ImageOutputStream outputStream = new FileImageOutputStream(targetFile)) {
+        try (ImageOutputStream outputStream = new MemoryCacheImageOutputStream(targetStream)) {
             writer = ImageIO.getImageWritersByFormatName("jpg").next();
             writer.setOutput(outputStream);
             writer.write(null, new IIOImage(bufferedImage, null, null), jpgWriteParam);
@@ -105,8 +185,8 @@ public class ImageHandler {
     }
 
     private EScalingAlgorithm.Type getScalingType(LoadedImage imageData, Dimension targetDimension) {
-        long targetSize = targetDimension.height * targetDimension.width;
-        long sourceSize = imageData.getImage().getHeight() * imageData.getImage().getWidth();
+        long targetSize = (long) targetDimension.height * targetDimension.width;
+        long sourceSize = (long) imageData.getSourceDimension().height * imageData.getSourceDimension().width;
         return targetSize >= sourceSize ? EScalingAlgorithm.Type.UPSCALING : EScalingAlgorithm.Type.DOWNSCALING;
     }
 
@@ -119,15 +199,25 @@ public class ImageHandler {
     }
 
     private BufferedImage scale(ScaleAlgorithm scaleAlgorithm, BufferedImage imageToScale, int dWidth, int dHeight, ImageType.ECompression compression, Color background) {
+        return prepareForCompression(scaleRaster(scaleAlgorithm, imageToScale, dWidth, dHeight), compression, background);
+    }
 
-        BufferedImage scaledImage;
-
+    private static BufferedImage scaleRaster(ScaleAlgorithm scaleAlgorithm, BufferedImage imageToScale, int dWidth, int dHeight) {
         if (dWidth == imageToScale.getWidth() && dHeight == imageToScale.getHeight()) {
-            scaledImage = imageToScale;
-        } else {
-            scaledImage = scaleAlgorithm.scale(imageToScale, dWidth, dHeight);
+            return imageToScale;
         }
+        if (scaleAlgorithm instanceof BandScaleAlgorithm) {
+            // the separable resampler premultiplies alpha itself, while unpacking the source at float precision
+            return new ParallelScaleAlgorithm((BandScaleAlgorithm) scaleAlgorithm).scale(imageToScale, dWidth, dHeight);
+        }
+        return new PremultipliedAlphaAlgorithm(scaleAlgorithm).scale(imageToScale, dWidth, dHeight);
+    }
 
+    /**
+     * Flattens the scaled image if the compression does not support transparency and applies anti-aliasing if enabled;
+     * returns the given image if nothing has to be done.
+     */
+    private BufferedImage prepareForCompression(BufferedImage scaledImage, ImageType.ECompression compression, Color background) {
         if (!compression.hasTransparency) {
             BufferedImage convertedImg = new BufferedImage(scaledImage.getWidth(), scaledImage.getHeight(), BufferedImage.TYPE_INT_RGB);
             convertedImg.getGraphics().drawImage(scaledImage, 0, 0, background, null);
@@ -144,4 +234,147 @@ public class ImageHandler {
     private ScaleAlgorithm getAsScalingAlgorithm(final ScaleAlgorithm algorithm, ImageType.ECompression compression) {
         return (imageToScale, dWidth, dHeight) -> ImageHandler.this.scale(algorithm, imageToScale, dWidth, dHeight, compression, DEFAULT_COLOR);
     }
+
+    /**
+     * Runs an encoder as fork join task; checked exceptions are rethrown by {@link #join(ForkJoinTask)}
+     */
+    private static final class EncodeTask extends RecursiveTask<byte[]> {
+        private static final long serialVersionUID = 1L;
+        private final transient Callable<byte[]> encoder;
+
+        EncodeTask(Callable<byte[]> encoder) {
+            this.encoder = encoder;
+        }
+
+        @Override
+        protected byte[] compute() {
+            try {
+                return encoder.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }
+
+        /**
+         * Joins the task (helping the pool meanwhile) and unwraps the exception thrown by the encoder
+         */
+        static byte[] join(ForkJoinTask<byte[]> task) throws Exception {
+            try {
+                return task.join();
+            } catch (CompletionException e) {
+                // tasks rethrow exceptions of other threads wrapped again, so unwrap all of them
+                Throwable cause = e;
+                while (cause instanceof CompletionException && cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+    }
+
+    /**
+     * Scales the source (or the parent raster if set) lazily and only once, so every compression of a target dimension
+     * is derived from the same raster. Vector sources are rendered at the target dimension instead.
+     */
+    static final class ScaledRaster {
+        private final BufferedImage source;
+        private final LoadedImage vectorSource;
+        private final ScaledRaster parent;
+        final Dimension targetDimension;
+        final ScaleAlgorithm algorithm;
+        private BufferedImage image;
+
+        ScaledRaster(BufferedImage source, ScaledRaster parent, Dimension targetDimension, ScaleAlgorithm algorithm) {
+            this(source, null, parent, targetDimension, algorithm);
+        }
+
+        ScaledRaster(LoadedImage vectorSource, Dimension targetDimension, ScaleAlgorithm algorithm) {
+            this(null, vectorSource, null, targetDimension, algorithm);
+        }
+
+        private ScaledRaster(BufferedImage source, LoadedImage vectorSource, ScaledRaster parent, Dimension targetDimension, ScaleAlgorithm algorithm) {
+            this.source = source;
+            this.vectorSource = vectorSource;
+            this.parent = parent;
+            this.targetDimension = new Dimension(targetDimension);
+            this.algorithm = algorithm;
+        }
+
+        /**
+         * @return all dimensions this raster is scaled through, starting from the source
+         */
+        List<Dimension> getScaleChain() {
+            List<Dimension> chain = parent != null ? parent.getScaleChain() : new ArrayList<>();
+            chain.add(targetDimension);
+            return chain;
+        }
+
+        synchronized BufferedImage get() throws Exception {
+            if (image == null && vectorSource != null) {
+                image = vectorSource.render(targetDimension);
+            } else if (image == null) {
+                BufferedImage base = parent != null ? parent.get() : source;
+                long startNanos = System.nanoTime();
+                image = scaleRaster(algorithm, base, targetDimension.width, targetDimension.height);
+                synchronized (traceMap) {
+                    traceMap.merge(algorithm, System.nanoTime() - startNanos, Long::sum);
+                }
+            }
+            return image;
+        }
+
+        synchronized boolean isBackedBy(BufferedImage other) {
+            return image == other;
+        }
+
+        synchronized void flush() {
+            if (image != null && image != source) {
+                image.flush();
+            }
+            image = null;
+        }
+    }
+
+    /**
+     * Everything besides the target file that defines the output of {@link #saveToFile(File, LoadedImage, Dimension, boolean)}.
+     * Equal variants of the same source result in the exact same bytes, so they only need to be scaled and compressed once,
+     * even if multiple platforms need them (e.g. android xhdpi, iOS @2x and web 2x).
+     */
+    static final class Variant {
+        private final List<Dimension> scaleChain;
+        private final ImageType.ECompression compression;
+        private final ScaleAlgorithm algorithm;
+        private final boolean isNinePatch;
+
+        Variant(List<Dimension> scaleChain, ImageType.ECompression compression, ScaleAlgorithm algorithm, boolean isNinePatch) {
+            this.scaleChain = scaleChain;
+            this.compression = compression;
+            this.algorithm = algorithm;
+            this.isNinePatch = isNinePatch;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Variant variant = (Variant) o;
+
+            if (isNinePatch != variant.isNinePatch) return false;
+            if (!scaleChain.equals(variant.scaleChain)) return false;
+            if (compression != variant.compression) return false;
+            return algorithm.equals(variant.algorithm);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = scaleChain.hashCode();
+            result = 31 * result + compression.hashCode();
+            result = 31 * result + algorithm.hashCode();
+            result = 31 * result + (isNinePatch ? 1 : 0);
+            return result;
+        }
+    }
 }
@@ -0,0 +1,86 @@
+package at.favre.tools.dconvert.converters.scaling;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Splits the target of a {@link BandScaleAlgorithm} into horizontal bands, which are scaled as fork join tasks. Called
+ * from a pool's thread the bands are forked into that pool, otherwise into the common pool, so idle threads help with a
+ * single big image; if all threads are busy the calling thread scales the bands itself.
+ */
+public class ParallelScaleAlgorithm implements ScaleAlgorithm {
+    /**
+     * Images are not split into bands of less pixels (of the larger of source and target)
+     */
+    static final int MIN_PIXELS_PER_BAND = 256 * 1024;
+
+    private final BandScaleAlgorithm algorithm;
+    private final int parallelism;
+
+    /**
+     * Uses as many bands as the current pool has threads
+     */
+    public ParallelScaleAlgorithm(BandScaleAlgorithm algorithm) {
+        this(algorithm, 0);
+    }
+
+    /**
+     * @param parallelism max count of bands, 0 to use the parallelism of the current pool
+     */
+    public ParallelScaleAlgorithm(BandScaleAlgorithm algorithm, int parallelism) {
+        this.algorithm = algorithm;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public BufferedImage scale(BufferedImage imageToScale, int dWidth, int dHeight) {
+        BufferedImage target = algorithm.createTarget(imageToScale, dWidth, dHeight);
+        int bandCount = getBandCount(imageToScale, dWidth, dHeight);
+
+        if (bandCount <= 1) {
+            algorithm.scaleBand(imageToScale, target, 0, dHeight);
+            return target;
+        }
+
+        List<ForkJoinTask<?>> bands = new ArrayList<>(bandCount);
+        for (int i = 0; i < bandCount; i++) {
+            int fromY = (int) ((long) dHeight * i / bandCount);
+            int toY = (int) ((long) dHeight * (i + 1) / bandCount);
+            bands.add(ForkJoinTask.adapt(() -> algorithm.scaleBand(imageToScale, target, fromY, toY)));
+        }
+        ForkJoinTask.invokeAll(bands);
+        return target;
+    }
+
+    private int getBandCount(BufferedImage imageToScale, int dWidth, int dHeight) {
+        int maxBands = parallelism > 0 ? parallelism : ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool().getParallelism() : ForkJoinPool.getCommonPoolParallelism();
+        long pixels = Math.max((long) dWidth * dHeight, (long) imageToScale.getWidth() * imageToScale.getHeight());
+        return (int) Math.max(1, Math.min(Math.min(maxBands, dHeight), pixels / MIN_PIXELS_PER_BAND));
+    }
+
+    @Override
+    public String toString() {
+        return "Parallel[" + algorithm + ']';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ParallelScaleAlgorithm that = (ParallelScaleAlgorithm) o;
+
+        if (parallelism != that.parallelism) return false;
+        return algorithm != null ? algorithm.equals(that.algorithm) : that.algorithm == null;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = algorithm != null ? algorithm.hashCode() : 0;
+        result = 31 * result + parallelism;
+        return result;
+    }
+}
@@ -0,0 +1,97 @@
+package at.favre.tools.dconvert.converters.scaling;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Scales images with alpha with premultiplied colors, whatever the wrapped algorithm does with alpha: the
+ * premultiplied colors and the alpha are scaled as two opaque images, then the colors are divided by the scaled alpha
+ * again. So the colors of (almost) transparent pixels do not bleed into their neighbours. Opaque images are passed
+ * through unchanged.
+ * <p>
+ * The premultiplied colors are rounded to 8 bit, so pixels with little alpha keep fewer distinct colors (a pixel with
+ * alpha 16 only 17 per channel). {@link SeparableResampleAlgorithm} premultiplies while unpacking the source instead
+ * and does not need this.
+ */
+public class PremultipliedAlphaAlgorithm implements ScaleAlgorithm {
+    private final ScaleAlgorithm algorithm;
+
+    public PremultipliedAlphaAlgorithm(ScaleAlgorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    @Override
+    public BufferedImage scale(BufferedImage imageToScale, int dWidth, int dHeight) {
+        if (!imageToScale.getColorModel().hasAlpha()) {
+            return algorithm.scale(imageToScale, dWidth, dHeight);
+        }
+
+        int width = imageToScale.getWidth();
+        int height = imageToScale.getHeight();
+        BufferedImage colors = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        BufferedImage alpha = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] colorPixels = ((DataBufferInt) colors.getRaster().getDataBuffer()).getData();
+        int[] alphaPixels = ((DataBufferInt) alpha.getRaster().getDataBuffer()).getData();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            imageToScale.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0, i = y * width; x < width; x++, i++) {
+                int a = row[x] >>> 24;
+                colorPixels[i] = premultiply((row[x] >> 16) & 0xFF, a) << 16 | premultiply((row[x] >> 8) & 0xFF, a) << 8 | premultiply(row[x] & 0xFF, a);
+                // all channels, so the algorithm can not treat it differently than the colors
+                alphaPixels[i] = a << 16 | a << 8 | a;
+            }
+        }
+
+        BufferedImage scaledColors = algorithm.scale(colors, dWidth, dHeight);
+        colors.flush();
+        BufferedImage scaledAlpha = algorithm.scale(alpha, dWidth, dHeight);
+        alpha.flush();
+
+        BufferedImage result = new BufferedImage(dWidth, dHeight, BufferedImage.TYPE_INT_ARGB);
+        int[] resultPixels = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        int[] alphaRow = new int[dWidth];
+        for (int y = 0; y < dHeight; y++) {
+            scaledColors.getRGB(0, y, dWidth, 1, resultPixels, y * dWidth, dWidth);
+            scaledAlpha.getRGB(0, y, dWidth, 1, alphaRow, 0, dWidth);
+            for (int x = 0, i = y * dWidth; x < dWidth; x++, i++) {
+                int a = (alphaRow[x] >> 8) & 0xFF;
+                int color = resultPixels[i];
+                resultPixels[i] = a == 0 ? 0 : a << 24 | unpremultiply((color >> 16) & 0xFF, a) << 16
+                        | unpremultiply((color >> 8) & 0xFF, a) << 8 | unpremultiply(color & 0xFF, a);
+            }
+        }
+        return result;
+    }
+
+    private static int premultiply(int channel, int alpha) {
+        return (channel * alpha + 127) / 255;
+    }
+
+    /**
+     * Filters may overshoot, so a premultiplied channel can be bigger than alpha
+     */
+    private static int unpremultiply(int channel, int alpha) {
+        return Math.min(255, (channel * 255 + alpha / 2) / alpha);
+    }
+
+    @Override
+    public String toString() {
+        return algorithm.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PremultipliedAlphaAlgorithm that = (PremultipliedAlphaAlgorithm) o;
+
+        return algorithm.equals(that.algorithm);
+    }
+
+    @Override
+    public int hashCode() {
+        return algorithm.hashCode();
+    }
+}
@@ -0,0 +1,57 @@
+package at.favre.tools.dconvert.converters.scaling;
+
+import at.favre.tools.dconvert.converters.scaling.SeparableResampleAlgorithm.Contributions;
+
+/**
+ * Inner loops of {@link SeparableResampleAlgorithm}. Besides the {@link ScalarResampleKernel} there is an optional
+ * kernel using the incubating Vector API, which is only built with the maven profile <code>vector</code> (jdk 17+) and
+ * only available if the jvm was started with <code>--add-modules jdk.incubator.vector</code>. Both give the exact same
+ * result, while the {@link FixedPointResampleKernel} trades a small error for speed.
+ */
+interface ResampleKernel {
+    ResampleKernel SCALAR = new ScalarResampleKernel();
+    ResampleKernel FIXED_POINT = new FixedPointResampleKernel();
+
+    /**
+     * How the alpha channel of the source is treated
+     */
+    enum Alpha {
+        /**
+         * alpha is ignored and set to opaque, for rgb images where the alpha byte is unused and not guaranteed to be set
+         */
+        OPAQUE,
+        /**
+         * all channels are filtered independently, like java-image-scaling does
+         */
+        STRAIGHT,
+        /**
+         * colors are multiplied with alpha before filtering and divided by it after, so transparent pixels do not
+         * contribute their color
+         */
+        PREMULTIPLIED
+    }
+    ResampleKernel VECTOR = loadVectorKernel();
+
+    /**
+     * Filters rowCount rows of packed int pixels, starting at srcOffset, into an intermediate image with 4 byte
+     * channels (a, r, g, b) per pixel, which are premultiplied if alpha is {@link Alpha#PREMULTIPLIED}
+     */
+    void scaleHorizontally(int[] src, int srcOffset, int srcWidth, int rowCount, Alpha alpha, byte[] dst, int dstWidth, Contributions contributions);
+
+    /**
+     * Filters the intermediate image, which starts at source row firstRow, vertically into the rows of the band
+     * described by the contributions; premultiplied colors are divided by alpha again
+     */
+    void scaleVertically(byte[] src, int firstRow, int width, Alpha alpha, int[] dst, Contributions contributions);
+
+    /**
+     * @return the vector kernel or null if it was not built or the module is not available
+     */
+    static ResampleKernel loadVectorKernel() {
+        try {
+            return (ResampleKernel) Class.forName(ResampleKernel.class.getPackage().getName() + ".VectorResampleKernel").getDeclaredConstructor().newInstance();
+        } catch (Exception | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package at.favre.tools.dconvert.converters.scaling;
+
+import at.favre.tools.dconvert.converters.scaling.SeparableResampleAlgorithm.Contributions;
+
+import java.util.Arrays;
+
+/**
+ * Plain java kernels of {@link SeparableResampleAlgorithm}; the horizontal pass filters two rows at once, so every
+ * contribution is only loaded once per pair
+ */
+class ScalarResampleKernel implements ResampleKernel {
+
+    @Override
+    public void scaleHorizontally(int[] src, int srcOffset, int srcWidth, int rowCount, Alpha alpha, byte[] dst, int dstWidth, Contributions contributions) {
+        int stride = contributions.stride;
+        float[] rows = SeparableResampleAlgorithm.getFloatBuffer(srcWidth * 8);
+        for (int y = 0; y < rowCount; y += 2) {
+            int srcRow = srcOffset + y * srcWidth;
+            // the last row of an odd count is filtered twice and only written once
+            int nextRow = y + 1 < rowCount ? srcRow + srcWidth : srcRow;
+            unpackRows(src, srcRow, nextRow, alpha, srcWidth, rows);
+
+            int dstRow = y * dstWidth * 4;
+            int dstNextRow = dstRow + dstWidth * 4;
+            boolean writeNext = y + 1 < rowCount;
+            for (int x = 0; x < dstWidth; x++) {
+                float a0 = 0, r0 = 0, g0 = 0, b0 = 0, a1 = 0, r1 = 0, g1 = 0, b1 = 0;
+                int start = x * stride;
+                int end = start + contributions.count[x];
+                for (int i = start; i < end; i++) {
+                    int j = contributions.pixel[i] << 3;
+                    float weight = contributions.weight[i];
+                    a0 += weight * rows[j];
+                    r0 += weight * rows[j + 1];
+                    g0 += weight * rows[j + 2];
+                    b0 += weight * rows[j + 3];
+                    a1 += weight * rows[j + 4];
+                    r1 += weight * rows[j + 5];
+                    g1 += weight * rows[j + 6];
+                    b1 += weight * rows[j + 7];
+                }
+                int k = dstRow + (x << 2);
+                dst[k] = (byte) SeparableResampleAlgorithm.toByte(a0);
+                dst[k + 1] = (byte) SeparableResampleAlgorithm.toByte(r0);
+                dst[k + 2] = (byte) SeparableResampleAlgorithm.toByte(g0);
+                dst[k + 3] = (byte) SeparableResampleAlgorithm.toByte(b0);
+                if (writeNext) {
+                    k = dstNextRow + (x << 2);
+                    dst[k] = (byte) SeparableResampleAlgorithm.toByte(a1);
+                    dst[k + 1] = (byte) SeparableResampleAlgorithm.toByte(r1);
+                    dst[k + 2] = (byte) SeparableResampleAlgorithm.toByte(g1);
+                    dst[k + 3] = (byte) SeparableResampleAlgorithm.toByte(b1);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void scaleVertically(byte[] src, int firstRow, int width, Alpha alpha, int[] dst, Contributions contributions) {
+        int stride = contributions.stride;
+        int rowLength = width * 4;
+        float[] row = SeparableResampleAlgorithm.getFloatBuffer(rowLength);
+        for (int y = 0; y < contributions.count.length; y++) {
+            Arrays.fill(row, 0, rowLength, 0f);
+            int start = y * stride;
+            int end = start + contributions.count[y];
+            for (int i = start; i < end; i++) {
+                int srcRow = (contributions.pixel[i] - firstRow) * rowLength;
+                float weight = contributions.weight[i];
+                for (int j = 0; j < rowLength; j++) {
+                    row[j] += weight * (src[srcRow + j] & 0xFF);
+                }
+            }
+
+            SeparableResampleAlgorithm.packRow(row, alpha, dst, (contributions.from + y) * width, width);
+        }
+    }
+
+    /**
+     * Unpacks two rows of argb pixels into 8 float channels per pixel (a, r, g, b of the first row, then of the next)
+     */
+    static void unpackRows(int[] src, int srcRow, int nextRow, Alpha alpha, int srcWidth, float[] rows) {
+        if (alpha == Alpha.PREMULTIPLIED) {
+            for (int x = 0, j = 0; x < srcWidth; x++, j += 8) {
+                unpackPremultiplied(src[srcRow + x], rows, j);
+                unpackPremultiplied(src[nextRow + x], rows, j + 4);
+            }
+            return;
+        }
+
+        int alphaMask = alpha == Alpha.OPAQUE ? 0xFF000000 : 0;
+        for (int x = 0, j = 0; x < srcWidth; x++, j += 8) {
+            int pixel = src[srcRow + x] | alphaMask;
+            rows[j] = pixel >>> 24;
+            rows[j + 1] = (pixel >> 16) & 0xFF;
+            rows[j + 2] = (pixel >> 8) & 0xFF;
+            rows[j + 3] = pixel & 0xFF;
+            pixel = src[nextRow + x] | alphaMask;
+            rows[j + 4] = pixel >>> 24;
+            rows[j + 5] = (pixel >> 16) & 0xFF;
+            rows[j + 6] = (pixel >> 8) & 0xFF;
+            rows[j + 7] = pixel & 0xFF;
+        }
+    }
+
+    private static void unpackPremultiplied(int pixel, float[] rows, int offset) {
+        int a = pixel >>> 24;
+        // exactly 1 for opaque pixels
+        float factor = a / 255f;
+        rows[offset] = a;
+        rows[offset + 1] = ((pixel >> 16) & 0xFF) * factor;
+        rows[offset + 2] = ((pixel >> 8) & 0xFF) * factor;
+        rows[offset + 3] = (pixel & 0xFF) * factor;
+    }
+
+    @Override
+    public String toString() {
+        return "scalar";
+    }
+}
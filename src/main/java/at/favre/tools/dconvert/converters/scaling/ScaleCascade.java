@@ -0,0 +1,52 @@
+package at.favre.tools.dconvert.converters.scaling;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the downscaled images of a single source, so smaller targets can be derived from the closest larger one
+ * instead of the full resolution source - similar to the halving steps of progressive scaling algorithms. A target is
+ * only derived if the ratio to its parent is not bigger than the given max ratio, otherwise the source is used.
+ * <p>
+ * Not thread safe; targets should be created from largest to smallest and {@link #flush()} must be called after the
+ * last one was saved.
+ */
+public class ScaleCascade {
+    private final float maxRatio;
+    private final List<ImageHandler.ScaledRaster> rasters = new ArrayList<>();
+
+    public ScaleCascade(float maxRatio) {
+        this.maxRatio = maxRatio;
+    }
+
+    ImageHandler.ScaledRaster createRaster(BufferedImage source, Dimension targetDimension, ScaleAlgorithm algorithm) {
+        ImageHandler.ScaledRaster parent = null;
+        for (ImageHandler.ScaledRaster raster : rasters) {
+            if (raster.algorithm.equals(algorithm) && canDerive(raster.targetDimension, targetDimension)
+                    && (parent == null || raster.targetDimension.width < parent.targetDimension.width)) {
+                parent = raster;
+            }
+        }
+
+        ImageHandler.ScaledRaster raster = new ImageHandler.ScaledRaster(source, parent, targetDimension, algorithm);
+        rasters.add(raster);
+        return raster;
+    }
+
+    private boolean canDerive(Dimension parent, Dimension target) {
+        return parent.width >= target.width && parent.height >= target.height && !parent.equals(target)
+                && (float) parent.width / target.width <= maxRatio && (float) parent.height / target.height <= maxRatio;
+    }
+
+    /**
+     * Frees all scaled images of this cascade
+     */
+    public void flush() {
+        for (ImageHandler.ScaledRaster raster : rasters) {
+            raster.flush();
+        }
+        rasters.clear();
+    }
+}
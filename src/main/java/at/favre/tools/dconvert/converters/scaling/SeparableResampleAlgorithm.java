@@ -0,0 +1,328 @@
+package at.favre.tools.dconvert.converters.scaling;
+
+import com.mortennobel.imagescaling.ResampleFilter;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.lang.ref.SoftReference;
+
+/**
+ * Separable resampler working directly on the packed int pixels of {@link BufferedImage#TYPE_INT_ARGB} and
+ * {@link BufferedImage#TYPE_INT_RGB} images. It uses the same filters and contributions as {@link ResambleAlgorithm}:
+ * rows are first filtered horizontally into an intermediate image with 8 bit channels, which is then filtered
+ * vertically. Results differ from java-image-scaling by at most one per channel.
+ * <p>
+ * Contributions are computed once per call into flat tables with a fixed stride, and the intermediate image and
+ * row accumulators are kept per thread, so a call allocates little more than the result. Other image types are
+ * read with {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}. A band only filters the source rows in
+ * its vertical filter support, so bands can be scaled independently.
+ * <p>
+ * With {@link Precision#FIXED_POINT} the filters use 16.16 fixed-point integer weights instead of floats, which is faster
+ * but may differ from the float result by up to one per channel and pass.
+ * <p>
+ * Images with alpha are filtered with premultiplied colors by default: they are multiplied with alpha while unpacking
+ * the source rows and divided by it once when packing the result, so the colors of (almost) transparent pixels do not
+ * bleed into their neighbours. ResampleOp filters straight alpha, which is still available for comparison. The 8 bit
+ * intermediate image then holds premultiplied colors, so pixels with little alpha keep fewer distinct colors after
+ * the horizontal pass (e.g. alpha 16 only 17 per channel); opaque pixels are not affected.
+ */
+public class SeparableResampleAlgorithm implements BandScaleAlgorithm {
+    private static final ThreadLocal<SoftReference<byte[]>> intermediateBuffer = new ThreadLocal<>();
+    private static final ThreadLocal<SoftReference<float[]>> rowBuffer = new ThreadLocal<>();
+    private static final ThreadLocal<SoftReference<int[]>> fixedPointRowBuffer = new ThreadLocal<>();
+    private static final ThreadLocal<SoftReference<long[]>> fixedPointPairBuffer = new ThreadLocal<>();
+
+    public enum Precision {FLOAT, FIXED_POINT}
+
+    private final ResampleFilter filter;
+    private final Precision precision;
+    private final boolean premultiplyAlpha;
+    private final ResampleKernel kernel;
+
+    /**
+     * Uses the vector kernel if available, see {@link #isVectorKernelAvailable()}
+     */
+    public SeparableResampleAlgorithm(ResampleFilter filter) {
+        this(filter, true);
+    }
+
+    /**
+     * @param useVectorKernel false to always use the scalar kernel, e.g. for comparison
+     */
+    public SeparableResampleAlgorithm(ResampleFilter filter, boolean useVectorKernel) {
+        this(filter, Precision.FLOAT, true, useVectorKernel && ResampleKernel.VECTOR != null ? ResampleKernel.VECTOR : ResampleKernel.SCALAR);
+    }
+
+    /**
+     * @param precision of weights and accumulators, float uses the vector kernel if available
+     */
+    public SeparableResampleAlgorithm(ResampleFilter filter, Precision precision) {
+        this(filter, precision, true);
+    }
+
+    /**
+     * @param premultiplyAlpha false to filter all channels of images with alpha independently, like ResampleOp
+     */
+    public SeparableResampleAlgorithm(ResampleFilter filter, Precision precision, boolean premultiplyAlpha) {
+        this(filter, precision, premultiplyAlpha, precision == Precision.FIXED_POINT ? ResampleKernel.FIXED_POINT
+                : ResampleKernel.VECTOR != null ? ResampleKernel.VECTOR : ResampleKernel.SCALAR);
+    }
+
+    private SeparableResampleAlgorithm(ResampleFilter filter, Precision precision, boolean premultiplyAlpha, ResampleKernel kernel) {
+        this.filter = filter;
+        this.precision = precision;
+        this.premultiplyAlpha = premultiplyAlpha;
+        this.kernel = kernel;
+    }
+
+    /**
+     * @return true if this build contains the Vector API kernel and the jvm was started with
+     * <code>--add-modules jdk.incubator.vector</code>
+     */
+    public static boolean isVectorKernelAvailable() {
+        return ResampleKernel.VECTOR != null;
+    }
+
+    @Override
+    public BufferedImage scale(BufferedImage imageToScale, int dWidth, int dHeight) {
+        BufferedImage result = createTarget(imageToScale, dWidth, dHeight);
+        scaleBand(imageToScale, result, 0, dHeight);
+        return result;
+    }
+
+    @Override
+    public BufferedImage createTarget(BufferedImage imageToScale, int dWidth, int dHeight) {
+        return new BufferedImage(dWidth, dHeight, imageToScale.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Override
+    public void scaleBand(BufferedImage imageToScale, BufferedImage target, int fromY, int toY) {
+        int srcWidth = imageToScale.getWidth();
+        int dWidth = target.getWidth();
+        Contributions horizontal = Contributions.create(filter, srcWidth, dWidth, 0, dWidth);
+        Contributions vertical = Contributions.create(filter, imageToScale.getHeight(), target.getHeight(), fromY, toY);
+
+        // only the source rows in the filter support of the band are filtered horizontally
+        int firstRow = vertical.minPixel;
+        int rowCount = vertical.maxPixel - firstRow + 1;
+        int[] srcPixels;
+        int srcOffset;
+        if (isPacked(imageToScale)) {
+            srcPixels = ((DataBufferInt) imageToScale.getRaster().getDataBuffer()).getData();
+            srcOffset = firstRow * srcWidth;
+        } else {
+            srcPixels = imageToScale.getRGB(0, firstRow, srcWidth, rowCount, null, 0, srcWidth);
+            srcOffset = 0;
+        }
+
+        byte[] intermediate = getByteBuffer(rowCount * dWidth * 4);
+        ResampleKernel.Alpha alpha = !imageToScale.getColorModel().hasAlpha() ? ResampleKernel.Alpha.OPAQUE
+                : premultiplyAlpha ? ResampleKernel.Alpha.PREMULTIPLIED : ResampleKernel.Alpha.STRAIGHT;
+        kernel.scaleHorizontally(srcPixels, srcOffset, srcWidth, rowCount, alpha, intermediate, dWidth, horizontal);
+
+        int[] dstPixels = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+        kernel.scaleVertically(intermediate, firstRow, dWidth, alpha, dstPixels, vertical);
+    }
+
+    /**
+     * Rounds the accumulated channels (a, r, g, b) of a row to argb pixels
+     */
+    static void packRow(float[] row, ResampleKernel.Alpha alpha, int[] dst, int dstOffset, int width) {
+        if (alpha == ResampleKernel.Alpha.PREMULTIPLIED) {
+            for (int x = 0, j = 0; x < width; x++, j += 4) {
+                int a = toByte(row[j]);
+                if (a == 0) {
+                    dst[dstOffset + x] = 0;
+                } else {
+                    // the sum of the weights is not exactly one, so opaque areas would otherwise be off by one at times
+                    float factor = a == 255 ? 1f : 255f / row[j];
+                    dst[dstOffset + x] = a << 24 | toByte(row[j + 1] * factor) << 16 | toByte(row[j + 2] * factor) << 8 | toByte(row[j + 3] * factor);
+                }
+            }
+        } else {
+            for (int x = 0, j = 0; x < width; x++, j += 4) {
+                dst[dstOffset + x] = toByte(row[j]) << 24 | toByte(row[j + 1]) << 16 | toByte(row[j + 2]) << 8 | toByte(row[j + 3]);
+            }
+        }
+    }
+
+    static int toByte(float value) {
+        if (value <= 0) {
+            return 0;
+        }
+        if (value >= 255) {
+            return 255;
+        }
+        return (int) (value + 0.5f);
+    }
+
+    /**
+     * @return true if the pixels can be read directly from the backing int array without offset or padding
+     */
+    private static boolean isPacked(BufferedImage image) {
+        return (image.getType() == BufferedImage.TYPE_INT_ARGB || image.getType() == BufferedImage.TYPE_INT_RGB)
+                && image.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) image.getRaster().getSampleModel()).getScanlineStride() == image.getWidth()
+                && image.getRaster().getSampleModelTranslateX() == 0 && image.getRaster().getSampleModelTranslateY() == 0
+                && image.getRaster().getDataBuffer().getSize() == image.getWidth() * image.getHeight();
+    }
+
+    private static byte[] getByteBuffer(int size) {
+        SoftReference<byte[]> reference = intermediateBuffer.get();
+        byte[] buffer = reference != null ? reference.get() : null;
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[size];
+            intermediateBuffer.set(new SoftReference<>(buffer));
+        }
+        return buffer;
+    }
+
+    static float[] getFloatBuffer(int size) {
+        SoftReference<float[]> reference = rowBuffer.get();
+        float[] buffer = reference != null ? reference.get() : null;
+        if (buffer == null || buffer.length < size) {
+            buffer = new float[size];
+            rowBuffer.set(new SoftReference<>(buffer));
+        }
+        return buffer;
+    }
+
+    static int[] getIntBuffer(int size) {
+        SoftReference<int[]> reference = fixedPointRowBuffer.get();
+        int[] buffer = reference != null ? reference.get() : null;
+        if (buffer == null || buffer.length < size) {
+            buffer = new int[size];
+            fixedPointRowBuffer.set(new SoftReference<>(buffer));
+        }
+        return buffer;
+    }
+
+    static long[] getLongBuffer(int size) {
+        SoftReference<long[]> reference = fixedPointPairBuffer.get();
+        long[] buffer = reference != null ? reference.get() : null;
+        if (buffer == null || buffer.length < size) {
+            buffer = new long[size];
+            fixedPointPairBuffer.set(new SoftReference<>(buffer));
+        }
+        return buffer;
+    }
+
+    /**
+     * Source pixels and weights contributing to every destination pixel of one dimension, in flat arrays with a fixed
+     * stride per destination pixel. Calculated the same way as java-image-scaling's ResampleOp, including mirrored
+     * edges, so the results match.
+     */
+    static final class Contributions {
+        final int from;
+        final int stride;
+        final int[] count;
+        final int[] pixel;
+        final float[] weight;
+        int minPixel = Integer.MAX_VALUE;
+        int maxPixel = Integer.MIN_VALUE;
+        private int[] fixedPointWeight;
+
+        private Contributions(int from, int dstSize, int stride) {
+            this.from = from;
+            this.stride = stride;
+            this.count = new int[dstSize];
+            this.pixel = new int[dstSize * stride];
+            this.weight = new float[dstSize * stride];
+        }
+
+        /**
+         * @param from first destination pixel, inclusive
+         * @param to   last destination pixel, exclusive
+         */
+        static Contributions create(ResampleFilter filter, int srcSize, int dstSize, int from, int to) {
+            float scale = (float) dstSize / (float) srcSize;
+            float radius = filter.getSamplingRadius();
+            float centerOffset = 0.5f / scale;
+
+            // when downscaling the filter is stretched to cover all source pixels
+            float width = scale < 1.0f ? radius / scale : radius;
+            float normFactor = scale < 1.0f ? (float) (1f / (Math.ceil(width) / radius)) : 1f;
+            Contributions contributions = new Contributions(from, to - from, scale < 1.0f ? (int) (width * 2.0f + 2) : (int) (radius * 2.0f + 1));
+
+            for (int i = 0; i < to - from; i++) {
+                int offset = i * contributions.stride;
+                float center = (from + i) / scale + centerOffset;
+                int left = (int) Math.floor(center - width);
+                int right = (int) Math.ceil(center + width);
+                for (int j = left; j <= right && contributions.count[i] < contributions.stride; j++) {
+                    float weight = filter.apply((center - j) * normFactor);
+                    if (weight == 0.0f) {
+                        continue;
+                    }
+                    int n = j < 0 ? -j : j >= srcSize ? srcSize - j + srcSize - 1 : j;
+                    if (n < 0 || n >= srcSize) {
+                        weight = 0.0f;
+                        n = Math.max(0, Math.min(srcSize - 1, n));
+                    }
+                    int k = offset + contributions.count[i]++;
+                    contributions.pixel[k] = n;
+                    contributions.weight[k] = weight;
+                    contributions.minPixel = Math.min(contributions.minPixel, n);
+                    contributions.maxPixel = Math.max(contributions.maxPixel, n);
+                }
+
+                float sum = 0;
+                for (int k = offset; k < offset + contributions.count[i]; k++) {
+                    sum += contributions.weight[k];
+                }
+                if (sum != 0f) {
+                    for (int k = offset; k < offset + contributions.count[i]; k++) {
+                        contributions.weight[k] /= sum;
+                    }
+                }
+            }
+            return contributions;
+        }
+
+        /**
+         * @return the weights as 16.16 fixed-point numbers, see {@link FixedPointResampleKernel}
+         */
+        int[] getFixedPointWeights() {
+            if (fixedPointWeight == null) {
+                fixedPointWeight = FixedPointResampleKernel.toFixedPoint(weight, count, stride);
+            }
+            return fixedPointWeight;
+        }
+    }
+
+    /**
+     * Safe to use in file names, e.g. of {@link ImageHandler#TEST_MODE}
+     */
+    @Override
+    public String toString() {
+        return "SeparableResample-" + getFilterName() + "-" + kernel + (premultiplyAlpha ? "" : "-straightAlpha");
+    }
+
+    /**
+     * The filters of java-image-scaling all return the same name, so their class is used
+     */
+    private String getFilterName() {
+        return filter instanceof ResambleAlgorithm.LanczosFilter ? filter.getName() : filter.getClass().getSimpleName().replace("Filter", "");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        SeparableResampleAlgorithm that = (SeparableResampleAlgorithm) o;
+
+        if (premultiplyAlpha != that.premultiplyAlpha) return false;
+        if (filter != null ? !filter.equals(that.filter) : that.filter != null) return false;
+        return precision == that.precision;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = filter != null ? filter.hashCode() : 0;
+        result = 31 * result + precision.hashCode();
+        result = 31 * result + (premultiplyAlpha ? 1 : 0);
+        return result;
+    }
+}
@@ -18,6 +18,7 @@
 package at.favre.tools.dconvert.ui;
 
 import at.favre.tools.dconvert.arg.*;
+import at.favre.tools.dconvert.util.MemoryBudget;
 import org.apache.commons.cli.*;
 
 import java.io.File;
@@ -44,6 +45,11 @@ public class CLIInterpreter {
 	public static final String VERBOSE_ARG = "verbose";
 	public static final String SKIP_EXISTING_ARG = "skipExisting";
 	public static final String SCALE_IS_HEIGHT_DP_ARG = "scaleIsHeightDp";
+	public static final String CASCADE_SCALING_ARG = "cascadeScaling";
+	public static final String CASCADE_MAX_RATIO_ARG = "cascadeMaxRatio";
+	public static final String MEMORY_BUDGET_ARG = "memoryBudget";
+	public static final String POST_PROCESSOR_THREADS_ARG = "postProcessorThreads";
+	public static final String PREFETCH_ARG = "prefetch";
 
 	public static Arguments parse(String[] args) {
 		ResourceBundle strings = ResourceBundle.getBundle("bundles.strings", Locale.getDefault());
@@ -173,6 +179,22 @@ public class CLIInterpreter {
 				builder.threadCount(Integer.valueOf(commandLine.getOptionValue(THREADS_ARG)));
 			}
 
+			if (commandLine.hasOption(CASCADE_MAX_RATIO_ARG)) {
+				builder.cascadeMaxRatio(Float.valueOf(commandLine.getOptionValue(CASCADE_MAX_RATIO_ARG)));
+			}
+
+			if (commandLine.hasOption(MEMORY_BUDGET_ARG)) {
+				builder.memoryBudget(Integer.valueOf(commandLine.getOptionValue(MEMORY_BUDGET_ARG)));
+			}
+
+			if (commandLine.hasOption(POST_PROCESSOR_THREADS_ARG)) {
+				builder.postProcessorThreadCount(Integer.valueOf(commandLine.getOptionValue(POST_PROCESSOR_THREADS_ARG)));
+			}
+
+			if (commandLine.hasOption(PREFETCH_ARG)) {
+				builder.prefetch(Integer.valueOf(commandLine.getOptionValue(PREFETCH_ARG)));
+			}
+
 			builder.skipUpscaling(commandLine.hasOption("skipUpscaling"));
 			builder.skipExistingFiles(commandLine.hasOption(SKIP_EXISTING_ARG));
 			builder.includeAndroidLdpiTvdpi(commandLine.hasOption("androidIncludeLdpiTvdpi"));
@@ -187,6 +209,7 @@ public class CLIInterpreter {
 			builder.keepUnoptimizedFilesPostProcessor(commandLine.hasOption("keepOriginalPostProcessedFiles"));
 			builder.iosCreateImagesetFolders(commandLine.hasOption("iosCreateImagesetFolders"));
 			builder.clearDirBeforeConvert(commandLine.hasOption("clean"));
+			builder.cascadeScaling(commandLine.hasOption(CASCADE_SCALING_ARG));
 
 			return builder.build();
 		} catch (Exception e) {
@@ -215,6 +238,10 @@ public class CLIInterpreter {
 		Option compression = Option.builder(OUT_COMPRESSION_ARG).hasArg(true).argName("png|jpg|gif|bmp").desc(bundle.getString("arg.descr.cmd.outcompression")).build();
 		Option compressionQuality = Option.builder(COMPRESSION_QUALITY_ARG).hasArg(true).argName("0.0-1.0").desc(MessageFormat.format(bundle.getString("arg.descr.cmd.compression"), String.valueOf(Arguments.DEFAULT_COMPRESSION_QUALITY))).build();
 		Option upScalingAlgo = Option.builder(UPSCALING_ALGO_ARG).hasArg(true).argName(EScalingAlgorithm.getCliArgString(EScalingAlgorithm.Type.UPSCALING)).desc(MessageFormat.format(bundle.getString("arg.descr.scalingalgo"), Arguments.DEFAULT_PLATFORM)).build();
+		Option cascadeMaxRatio = Option.builder(CASCADE_MAX_RATIO_ARG).hasArg(true).argName("float").desc(MessageFormat.format(bundle.getString("arg.descr.cmd.cascadeRatio"), String.valueOf(Arguments.DEFAULT_CASCADE_MAX_RATIO))).build();
+		Option memoryBudget = Option.builder(MEMORY_BUDGET_ARG).hasArg(true).argName("MB").desc(MessageFormat.format(bundle.getString("arg.descr.cmd.memoryBudget"), Math.round(MemoryBudget.DEFAULT_HEAP_FRACTION * 100) + "%")).build();
+		Option postProcessorThreads = Option.builder(POST_PROCESSOR_THREADS_ARG).hasArg(true).argName("count").desc(MessageFormat.format(bundle.getString("arg.descr.cmd.postProcessorThreads"), Arguments.getDefaultPostProcessorThreadCount())).build();
+		Option prefetch = Option.builder(PREFETCH_ARG).hasArg(true).argName("count").desc(MessageFormat.format(bundle.getString("arg.descr.cmd.prefetch"), Arguments.DEFAULT_PREFETCH_COUNT)).build();
 		Option downScalingAlgo = Option.builder(DOWNSCALING_ALGO_ARG).hasArg(true).argName(EScalingAlgorithm.getCliArgString(EScalingAlgorithm.Type.DOWNSCALING)).desc(MessageFormat.format(bundle.getString("arg.descr.scalingalgo"), Arguments.DEFAULT_PLATFORM)).build();
 
 		Option skipExistingFiles = Option.builder(SKIP_EXISTING_ARG).desc(bundle.getString("arg.descr.skipexisting")).build();
@@ -232,6 +259,7 @@ public class CLIInterpreter {
 		Option dryRun = Option.builder("dryRun").desc(bundle.getString("arg.descr.dryrun")).build();
 		Option enableMozJpeg = Option.builder("postProcessorMozJpeg").desc(bundle.getString("arg.descr.mozjpeg")).build();
 		Option cleanBeforeConvert = Option.builder("clean").desc(bundle.getString("arg.descr.clean")).build();
+		Option cascadeScaling = Option.builder(CASCADE_SCALING_ARG).desc(bundle.getString("arg.descr.cascade")).build();
 
 		Option help = Option.builder("h").longOpt("help").desc(bundle.getString("arg.descr.cmd.help")).build();
 		Option version = Option.builder("v").longOpt("version").desc(bundle.getString("arg.descr.cmd.version")).build();
@@ -243,11 +271,12 @@ public class CLIInterpreter {
 
 		options.addOption(srcScaleOpt).addOption(dstOpt);
 		options.addOption(platform).addOption(compression).addOption(compressionQuality).addOption(threadCount).addOption(roundingHandler)
-				.addOption(upScalingAlgo).addOption(downScalingAlgo);
+				.addOption(upScalingAlgo).addOption(downScalingAlgo).addOption(cascadeMaxRatio).addOption(memoryBudget).addOption(postProcessorThreads).addOption(prefetch);
 		options.addOption(skipExistingFiles).addOption(skipUpscaling).addOption(androidIncludeLdpiTvdpi).addOption(verboseLog)
 				.addOption(antiAliasing).addOption(dryRun).addOption(haltOnError).addOption(mipmapInsteadOfDrawable)
 				.addOption(enablePngCrush).addOption(postWebpConvert).addOption(dpScaleIsHeight).addOption(enableMozJpeg)
-				.addOption(keepUnPostProcessed).addOption(iosCreateImagesetFolders).addOption(cleanBeforeConvert);
+				.addOption(keepUnPostProcessed).addOption(iosCreateImagesetFolders).addOption(cleanBeforeConvert)
+				.addOption(cascadeScaling);
 
 		options.addOptionGroup(mainArgs);
 
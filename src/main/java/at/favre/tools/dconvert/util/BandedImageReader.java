@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2016 Patrick Favre-Bulle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package at.favre.tools.dconvert.util;
+
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.arg.ImageType;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Reduces images which are too big to be decoded at once. The source is read in a single pass and every row is
+ * resampled with a separable triangle filter as soon as the reader decoded it (see {@link RowDestination}), psd
+ * composites are read row by row by {@link PsdCompositeReader}. Only the few rows of the filter's support are kept,
+ * so peak memory is bounded by the (much smaller) result.
+ */
+public class BandedImageReader {
+    /**
+     * Reads the image resampled to given dimension
+     *
+     * @param input           image file
+     * @param targetDimension dimension of the returned image, should not be bigger than the source
+     * @return loaded image without exif, with the dimension of the full image as source dimension
+     * @throws IOException if the image could not be read
+     */
+    public LoadedImage read(File input, Dimension targetDimension) throws IOException {
+        Reduction reduction = new Reduction(targetDimension);
+        if (Arguments.getImageType(input) == ImageType.PSD && PsdCompositeReader.readRows(input, reduction)) {
+            return new LoadedImage(input, reduction.getResult(), null, null, reduction.getSourceDimension());
+        }
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+            if (stream == null) {
+                throw new IIOException("Can't create an ImageInputStream!");
+            }
+
+            ImageReader reader = ImageUtil.getReader(stream, 1);
+            if (reader == null) {
+                throw new IIOException("No reader for: " + input);
+            }
+            try {
+                reader.setInput(stream, false, true);
+                IIOMetadata metadata = reader.getImageMetadata(0);
+                Dimension srcDimension = new Dimension(reader.getWidth(0), reader.getHeight(0));
+
+                if (!readRows(reader, srcDimension, reduction)) {
+                    // e.g. packed bits; decoded with subsampling in a single pass, then reduced as well
+                    BufferedImage image = ImageUtil.readSubsampled(reader, new Rectangle(srcDimension), ImageUtil.getSubsampling(srcDimension, targetDimension));
+                    reduce(image, reduction);
+                }
+                return new LoadedImage(input, reduction.getResult(), metadata, null, srcDimension);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * @return false if the type is not supported by {@link RowDestination} or the reader does not accept such a
+     * destination (e.g. if it accesses the data arrays directly), nothing was read then
+     */
+    private static boolean readRows(ImageReader reader, Dimension srcDimension, Reduction reduction) throws IOException {
+        // the first type is the one the reader would create itself
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        RowDestination destination = types.hasNext() ? RowDestination.create(types.next(), srcDimension.width, srcDimension.height, reduction) : null;
+        if (destination == null) {
+            return false;
+        }
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(destination.getDestination());
+        try {
+            reader.read(0, param);
+        } catch (IIOException | ClassCastException e) {
+            if (reduction.hasRows()) {
+                throw e;
+            }
+            return false;
+        }
+        destination.finish();
+        return true;
+    }
+
+    private static void reduce(BufferedImage image, RowConsumer consumer) {
+        int[] row = new int[image.getWidth()];
+        consumer.start(image.getWidth(), image.getHeight(), image.getColorModel().hasAlpha());
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, row.length, 1, row, 0, row.length);
+            consumer.accept(row);
+        }
+        image.flush();
+    }
+
+    /**
+     * Resamples the rows as they arrive; a row of the result is written as soon as the last source row of its filter
+     * support arrived, so only that many horizontally resampled rows are kept
+     */
+    private static final class Reduction implements RowConsumer {
+        private final Dimension dstDimension;
+        private Dimension srcDimension;
+        private Filter horizontal;
+        private Filter vertical;
+        private float[][] rows;
+        private float[] accumulator;
+        private int[] dstRow;
+        private BufferedImage result;
+        private int srcY;
+        private int dstY;
+
+        Reduction(Dimension dstDimension) {
+            this.dstDimension = dstDimension;
+        }
+
+        @Override
+        public void start(int width, int height, boolean hasAlpha) {
+            srcY = 0;
+            dstY = 0;
+            srcDimension = new Dimension(width, height);
+            horizontal = new Filter(width, dstDimension.width);
+            vertical = new Filter(height, dstDimension.height);
+            rows = new float[vertical.getMaxContributors()][dstDimension.width * 4];
+            accumulator = new float[dstDimension.width * 4];
+            dstRow = new int[dstDimension.width];
+            result = new BufferedImage(dstDimension.width, dstDimension.height, hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        }
+
+        @Override
+        public void accept(int[] argb) {
+            horizontal.resampleRow(argb, rows[srcY % rows.length]);
+            for (; dstY < dstDimension.height && vertical.getLast(dstY) <= srcY; dstY++) {
+                Arrays.fill(accumulator, 0f);
+                for (int i = 0; i < vertical.weights[dstY].length; i++) {
+                    float weight = vertical.weights[dstY][i];
+                    float[] row = rows[(vertical.first[dstY] + i) % rows.length];
+                    for (int x = 0; x < accumulator.length; x++) {
+                        accumulator[x] += weight * row[x];
+                    }
+                }
+                toArgb(accumulator, dstRow);
+                result.setRGB(0, dstY, dstDimension.width, 1, dstRow, 0, dstDimension.width);
+            }
+            srcY++;
+        }
+
+        boolean hasRows() {
+            return srcY > 0;
+        }
+
+        Dimension getSourceDimension() {
+            return srcDimension;
+        }
+
+        BufferedImage getResult() throws IIOException {
+            if (result == null || dstY < dstDimension.height) {
+                throw new IIOException("image ended after " + srcY + " rows");
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Converts premultiplied float channels (alpha, red, green, blue) back to argb
+     */
+    private static void toArgb(float[] premultiplied, int[] argb) {
+        for (int x = 0; x < argb.length; x++) {
+            float alpha = premultiplied[x * 4];
+            if (alpha <= 0f) {
+                argb[x] = 0;
+                continue;
+            }
+            argb[x] = clamp(alpha) << 24
+                    | clamp(premultiplied[x * 4 + 1] * 255f / alpha) << 16
+                    | clamp(premultiplied[x * 4 + 2] * 255f / alpha) << 8
+                    | clamp(premultiplied[x * 4 + 3] * 255f / alpha);
+        }
+    }
+
+    private static int clamp(float value) {
+        return Math.max(0, Math.min(255, Math.round(value)));
+    }
+
+    /**
+     * Triangle filter weights of one axis; the support grows with the reduction ratio so every source pixel is used
+     */
+    private static class Filter {
+        private final int[] first;
+        private final float[][] weights;
+
+        Filter(int srcSize, int dstSize) {
+            double scale = (double) srcSize / dstSize;
+            double radius = Math.max(1.0, scale);
+            first = new int[dstSize];
+            weights = new float[dstSize][];
+
+            for (int i = 0; i < dstSize; i++) {
+                double center = (i + 0.5) * scale - 0.5;
+                int from = Math.max(0, (int) Math.ceil(center - radius));
+                int to = Math.min(srcSize - 1, (int) Math.floor(center + radius));
+                if (to < from) {
+                    to = from = Math.min(srcSize - 1, Math.max(0, (int) Math.round(center)));
+                }
+
+                float[] w = new float[to - from + 1];
+                float sum = 0;
+                for (int j = from; j <= to; j++) {
+                    w[j - from] = (float) Math.max(0.0, 1.0 - Math.abs(j - center) / radius);
+                    sum += w[j - from];
+                }
+                for (int j = 0; j < w.length; j++) {
+                    w[j] = sum > 0 ? w[j] / sum : 1f / w.length;
+                }
+                first[i] = from;
+                weights[i] = w;
+            }
+        }
+
+        int getLast(int index) {
+            return first[index] + weights[index].length - 1;
+        }
+
+        int getMaxContributors() {
+            int max = 1;
+            for (float[] w : weights) {
+                max = Math.max(max, w.length);
+            }
+            return max;
+        }
+
+        /**
+         * Stores the resampled row as premultiplied (alpha, red, green, blue) floats in 0-255
+         */
+        void resampleRow(int[] argb, float[] row) {
+            for (int i = 0; i < weights.length; i++) {
+                float a = 0, r = 0, g = 0, b = 0;
+                for (int j = 0; j < weights[i].length; j++) {
+                    int pixel = argb[first[i] + j];
+                    float alpha = pixel >>> 24;
+                    float weight = weights[i][j] * alpha / 255f;
+                    a += weights[i][j] * alpha;
+                    r += weight * ((pixel >> 16) & 0xff);
+                    g += weight * ((pixel >> 8) & 0xff);
+                    b += weight * (pixel & 0xff);
+                }
+                row[i * 4] = a;
+                row[i * 4 + 1] = r;
+                row[i * 4 + 2] = g;
+                row[i * 4 + 3] = b;
+            }
+        }
+    }
+}
@@ -19,11 +19,9 @@
 package at.favre.tools.dconvert.util;
 
 import at.favre.tools.dconvert.arg.Arguments;
-import at.favre.tools.dconvert.arg.EScaleMode;
 import at.favre.tools.dconvert.converters.descriptors.DensityDescriptor;
 
 import java.awt.*;
-import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 import java.util.TreeMap;
@@ -32,8 +30,6 @@ import java.util.TreeMap;
  * Helps assembling needed densities to convert to
  */
 public class DensityBucketUtil {
-    public static final float SVG_UPSCALE_FACTOR = 4;
-
     public static <T extends DensityDescriptor> Map<T, Dimension> getDensityBuckets(java.util.List<T> densities, Dimension srcDimension, Arguments args, float scale, boolean isNinePatch) throws IOException {
 
         if (isNinePatch) {
@@ -90,21 +86,4 @@ public class DensityBucketUtil {
         });
         return bucketMap;
     }
-
-    private static Dimension getHqDimension(File image, Arguments args) throws IOException {
-        Dimension srcDimension = ImageUtil.getImageDimension(image);
-        Dimension hqDimension;
-        if (args.scaleMode == EScaleMode.FACTOR && args.scale < SVG_UPSCALE_FACTOR) {
-            hqDimension = new Dimension((int) args.round(SVG_UPSCALE_FACTOR / args.scale * (float) srcDimension.width), (int) args.round(SVG_UPSCALE_FACTOR / args.scale * (float) srcDimension.width));
-        } else if (args.scaleMode == EScaleMode.DP_WIDTH && (args.scale * SVG_UPSCALE_FACTOR < srcDimension.width)) {
-            float scaleFactor = args.scale / (float) srcDimension.width * SVG_UPSCALE_FACTOR;
-            hqDimension = new Dimension((int) args.round(scaleFactor * (float) srcDimension.width), (int) args.round(scaleFactor * (float) srcDimension.height));
-        } else if (args.scaleMode == EScaleMode.DP_HEIGHT && (args.scale * SVG_UPSCALE_FACTOR < srcDimension.height)) {
-            float scaleFactor = args.scale / (float) srcDimension.height * SVG_UPSCALE_FACTOR;
-            hqDimension = new Dimension((int) args.round(scaleFactor * (float) srcDimension.width), (int) args.round(scaleFactor * (float) srcDimension.height));
-        } else {
-            hqDimension = srcDimension;
-        }
-        return hqDimension;
-    }
 }
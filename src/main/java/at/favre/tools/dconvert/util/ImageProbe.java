@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2016 Patrick Favre-Bulle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package at.favre.tools.dconvert.util;
+
+import at.favre.tools.dconvert.arg.Arguments;
+import at.favre.tools.dconvert.arg.ImageType;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.awt.*;
+import java.awt.image.ColorModel;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads basic info of images from their header only, without decoding any pixels. Results are cached per path,
+ * file size and last modified date, so planning, dry runs and memory admission can ask for them as often as needed.
+ * Only the most recently used infos are kept, so long sessions over many folders do not grow the cache.
+ */
+public final class ImageProbe {
+    private static final int MAX_CACHED_INFOS = 4096;
+    private static final Map<Key, ImageInfo> cache = new LinkedHashMap<Key, ImageInfo>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, ImageInfo> eldest) {
+            return size() > MAX_CACHED_INFOS;
+        }
+    };
+
+    private ImageProbe() {
+    }
+
+    /**
+     * Returns the header info of given image, from the cache if the file did not change
+     *
+     * @param imgFile image file
+     * @return info of the first image in the file
+     * @throws IOException if the file can not be read or is not a known image
+     */
+    public static ImageInfo probe(File imgFile) throws IOException {
+        Key key = new Key(imgFile);
+        ImageInfo info;
+        synchronized (cache) {
+            info = cache.get(key);
+        }
+        if (info == null) {
+            // read outside of the lock, so probing different files does not block each other
+            info = readHeader(imgFile);
+            synchronized (cache) {
+                cache.put(key, info);
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Removes all cached infos
+     */
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private static ImageInfo readHeader(File imgFile) throws IOException {
+        if (Arguments.getImageType(imgFile) == ImageType.PSD) {
+            return PsdCompositeReader.readInfo(imgFile);
+        }
+        if (Arguments.getImageType(imgFile) == ImageType.SVG) {
+            // svgs are rendered to argb
+            return new ImageInfo(readSvgDimension(imgFile), true, 32, 4);
+        }
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(imgFile)) {
+            if (stream == null) {
+                throw new IIOException("Can't create an ImageInputStream for " + imgFile);
+            }
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                throw new IOException("Not a known image file: " + imgFile.getAbsolutePath());
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                Dimension dimension = new Dimension(reader.getWidth(0), reader.getHeight(0));
+                ColorModel colorModel = getColorModel(reader);
+                if (colorModel == null) {
+                    return new ImageInfo(dimension, false, -1, -1);
+                }
+                return new ImageInfo(dimension, colorModel.hasAlpha(), colorModel.getPixelSize(), colorModel.getNumComponents());
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Reads only the attributes of the root element instead of parsing the whole document
+     */
+    private static Dimension readSvgDimension(File imgFile) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        Dimension dimension = null;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(imgFile))) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamReader.START_ELEMENT) {
+                        dimension = SvgDocument.toDimension(reader.getAttributeValue(null, "width"), reader.getAttributeValue(null, "height"));
+                        break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            // e.g. entities declared in the doctype, left to Batik
+        }
+
+        return dimension != null ? dimension : SvgDocument.parse(imgFile).getDimension();
+    }
+
+    private static ColorModel getColorModel(ImageReader reader) {
+        try {
+            ImageTypeSpecifier type = reader.getRawImageType(0);
+            if (type == null) {
+                Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+                type = types.hasNext() ? types.next() : null;
+            }
+            return type != null ? type.getColorModel() : null;
+        } catch (Exception e) {
+            // some readers need more than the header for this, the dimension is still valid
+            return null;
+        }
+    }
+
+    /**
+     * Header info of an image
+     */
+    public static final class ImageInfo {
+        private final Dimension dimension;
+        private final boolean hasAlpha;
+        private final int bitDepth;
+        private final int colorComponents;
+
+        public ImageInfo(Dimension dimension, boolean hasAlpha, int bitDepth, int colorComponents) {
+            this.dimension = dimension;
+            this.hasAlpha = hasAlpha;
+            this.bitDepth = bitDepth;
+            this.colorComponents = colorComponents;
+        }
+
+        public Dimension getDimension() {
+            return new Dimension(dimension);
+        }
+
+        public boolean hasAlpha() {
+            return hasAlpha;
+        }
+
+        /**
+         * @return bits per pixel or -1 if unknown
+         */
+        public int getBitDepth() {
+            return bitDepth;
+        }
+
+        /**
+         * @return count of color components including alpha or -1 if unknown
+         */
+        public int getColorComponents() {
+            return colorComponents;
+        }
+
+        @Override
+        public String toString() {
+            return "ImageInfo{" +
+                    "dimension=" + dimension.width + "x" + dimension.height +
+                    ", hasAlpha=" + hasAlpha +
+                    ", bitDepth=" + bitDepth +
+                    ", colorComponents=" + colorComponents +
+                    '}';
+        }
+    }
+
+    private static class Key {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+
+        Key(File file) {
+            this.path = file.getAbsolutePath();
+            this.size = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            if (size != key.size) return false;
+            if (lastModified != key.lastModified) return false;
+            return path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = path.hashCode();
+            result = 31 * result + (int) (size ^ (size >>> 32));
+            result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+            return result;
+        }
+    }
+}
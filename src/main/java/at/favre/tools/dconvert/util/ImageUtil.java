@@ -29,11 +29,13 @@ import javax.imageio.IIOException;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -44,8 +46,28 @@ import java.util.List;
  * Main Util class containing all
  */
 public class ImageUtil {
+    /**
+     * A subsampled image is decoded with at least this multiple of the largest target's size, so the following
+     * downscaling still has enough pixels to filter and the result looks the same as from the full image
+     */
+    public static final int SUBSAMPLING_SAFETY_MARGIN = 2;
+    /**
+     * Sources with more pixels are reduced row by row while reading with {@link BandedImageReader} if the format is supported
+     */
+    public static final long BANDED_DECODING_PIXEL_THRESHOLD = 64L * 1024L * 1024L;
 
     public static LoadedImage loadImage(File input) throws Exception {
+        return loadImage(input, 1);
+    }
+
+    /**
+     * Loads an image, optionally at a reduced resolution (only every n-th pixel of every n-th row is decoded)
+     *
+     * @param input       image file
+     * @param subsampling 1 to decode the full image, see {@link #getSubsampling(Dimension, Dimension)}
+     * @return loaded image, with the dimension of the full image as source dimension
+     */
+    public static LoadedImage loadImage(File input, int subsampling) throws Exception {
         if (input == null) {
             throw new IllegalArgumentException("input == null!");
         }
@@ -53,81 +75,254 @@ public class ImageUtil {
             throw new IIOException("Can't read input file!");
         }
 
+        ImageType imageType = Arguments.getImageType(input);
+        if (imageType == ImageType.SVG) {
+            // vector sources are parsed once and rendered directly at every target size, see LoadedImage#render(Dimension)
+            SvgDocument document = SvgDocument.parse(input);
+            return new LoadedImage(input, document, document.getDimension());
+        }
+
+        if (imageType == ImageType.PSD) {
+            // only the merged composite is needed, so the layers of design files are skipped instead of parsed
+            LoadedImage composite = PsdCompositeReader.read(input, subsampling);
+            if (composite != null) {
+                return composite;
+            }
+        }
+
         ImageInputStream stream = ImageIO.createImageInputStream(input);
         if (stream == null) {
             throw new IIOException("Can't create an ImageInputStream!");
         }
-        LoadedImage image = read(stream, Arguments.getImageType(input));
+        CompoundDirectory exif = null;
+        if (imageType == ImageType.JPG) {
+            // the exif segment is read from the same stream, which is then rewound for the image reader
+            exif = readExif(stream);
+            stream.seek(0);
+        }
+
+        LoadedImage image = read(stream, imageType, subsampling);
         if (image.getImage() == null) {
             stream.close();
         }
-        return new LoadedImage(input, image.getImage(), image.getMetadata(), readExif(input));
+        return new LoadedImage(input, image.getImage(), image.getMetadata(), exif, image.getSourceDimension());
+    }
+
+    /**
+     * Loads a huge image and reduces it to given dimension row by row while reading, so it never has to be held in
+     * memory at full size. Only used for formats without exif segments.
+     *
+     * @param input           image file
+     * @param targetDimension dimension of the loaded image, see {@link #getBandedDecodingDimension(File, Dimension, Dimension)}
+     * @return loaded image, with the dimension of the full image as source dimension
+     */
+    public static LoadedImage loadImageBanded(File input, Dimension targetDimension) throws Exception {
+        return new BandedImageReader().read(input, targetDimension);
+    }
+
+    /**
+     * Returns the dimension a huge source should be reduced to while reading it. It keeps
+     * {@link #SUBSAMPLING_SAFETY_MARGIN} times the pixels needed for the largest target.
+     *
+     * @param srcFile                source image
+     * @param srcDimension           full dimension of the source
+     * @param largestTargetDimension biggest output dimension, may be null if unknown
+     * @return reduced dimension or null if the source is small enough, its format is not supported or it
+     * can not be reduced
+     */
+    public static Dimension getBandedDecodingDimension(File srcFile, Dimension srcDimension, Dimension largestTargetDimension) {
+        ImageType imageType = Arguments.getImageType(srcFile);
+        if ((long) srcDimension.width * srcDimension.height <= BANDED_DECODING_PIXEL_THRESHOLD || largestTargetDimension == null
+                || (imageType != ImageType.TIFF && imageType != ImageType.PSD && imageType != ImageType.BMP)) {
+            return null;
+        }
+
+        double ratio = Math.min((double) srcDimension.width / (largestTargetDimension.width * SUBSAMPLING_SAFETY_MARGIN),
+                (double) srcDimension.height / (largestTargetDimension.height * SUBSAMPLING_SAFETY_MARGIN));
+        if (ratio <= 1.0) {
+            return null;
+        }
+        return new Dimension((int) Math.ceil(srcDimension.width / ratio), (int) Math.ceil(srcDimension.height / ratio));
+    }
+
+    /**
+     * Returns the largest subsampling factor which still keeps {@link #SUBSAMPLING_SAFETY_MARGIN} times the pixels
+     * needed for the largest target
+     *
+     * @param srcDimension           full dimension of the source
+     * @param largestTargetDimension biggest output dimension, may be null if unknown
+     * @return factor for {@link #loadImage(File, int)}, 1 if no subsampling should be used
+     */
+    public static int getSubsampling(Dimension srcDimension, Dimension largestTargetDimension) {
+        if (largestTargetDimension == null || largestTargetDimension.width <= 0 || largestTargetDimension.height <= 0) {
+            return 1;
+        }
+        int factor = Math.min(srcDimension.width / (largestTargetDimension.width * SUBSAMPLING_SAFETY_MARGIN),
+                srcDimension.height / (largestTargetDimension.height * SUBSAMPLING_SAFETY_MARGIN));
+        return Math.max(1, factor);
+    }
+
+    /**
+     * @return the dimension of an image decoded with given subsampling
+     */
+    public static Dimension getSubsampledDimension(Dimension srcDimension, int subsampling) {
+        return new Dimension((srcDimension.width + subsampling - 1) / subsampling, (srcDimension.height + subsampling - 1) / subsampling);
     }
 
-    private static CompoundDirectory readExif(File input) throws IOException {
-        if (Arguments.getImageType(input) == ImageType.JPG) {
-            try (ImageInputStream stream = ImageIO.createImageInputStream(input)) {
-                List<JPEGSegment> exifSegment = JPEGSegmentUtil.readSegments(stream, JPEG.APP1, "Exif");
-                if (!exifSegment.isEmpty()) {
-                    InputStream exifData = exifSegment.get(0).data();
-                    exifData.read(); // Skip 0-pad for Exif in JFIF
-                    try (ImageInputStream exifStream = ImageIO.createImageInputStream(exifData)) {
-                        return (CompoundDirectory) new EXIFReader().read(exifStream);
-                    }
+    private static CompoundDirectory readExif(ImageInputStream stream) {
+        try {
+            List<JPEGSegment> exifSegment = JPEGSegmentUtil.readSegments(stream, JPEG.APP1, "Exif");
+            if (!exifSegment.isEmpty()) {
+                InputStream exifData = exifSegment.get(0).data();
+                exifData.read(); // Skip 0-pad for Exif in JFIF
+                try (ImageInputStream exifStream = ImageIO.createImageInputStream(exifData)) {
+                    return (CompoundDirectory) new EXIFReader().read(exifStream);
                 }
-            } catch (Exception e) {
-                System.err.println("could not read exif");
-                e.printStackTrace();
-                return null;
             }
+        } catch (Exception e) {
+            System.err.println("could not read exif");
+            e.printStackTrace();
         }
         return null;
     }
 
-    private static LoadedImage read(ImageInputStream stream, ImageType imageType) throws IOException {
+    private static LoadedImage read(ImageInputStream stream, ImageType imageType, int subsampling) throws IOException {
         if (stream == null) {
             throw new IllegalArgumentException("stream == null!");
         }
 
-        Iterator iter = ImageIO.getImageReaders(stream);
-        if (!iter.hasNext()) {
+        ImageReader reader = getReader(stream, subsampling);
+        if (reader == null) {
             return null;
         }
 
-        ImageReader reader = (ImageReader) iter.next();
-        ImageReadParam param = reader.getDefaultReadParam();
         reader.setInput(stream, true, true);
         BufferedImage bi;
         IIOMetadata metadata;
+        Dimension sourceDimension;
         try {
             metadata = reader.getImageMetadata(0);
-            bi = reader.read(0, param);
+            sourceDimension = new Dimension(reader.getWidth(0), reader.getHeight(0));
+            bi = readSubsampled(reader, new Rectangle(sourceDimension), subsampling);
         } finally {
             reader.dispose();
             stream.close();
         }
 
-        return new LoadedImage(null, bi, metadata, null);
+        return new LoadedImage(null, bi, metadata, null, sourceDimension);
     }
 
-    @Deprecated
-    public static BufferedImage readSvg(File file, Dimension sourceDimension) throws Exception {
-        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
-            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
-            if (!readers.hasNext()) {
-                throw new IllegalArgumentException("No reader for: " + file);
-            }
+    /**
+     * Reads a region of the first image keeping only every n-th pixel of every n-th row. Readers without source
+     * subsampling decode into a {@link SubsamplingDestination}, so the region is never held at full resolution.
+     *
+     * @param reader      with input set
+     * @param region      region of the image to read, its y has to be a multiple of the subsampling
+     * @param subsampling 1 to read the full resolution
+     * @return image of type {@link BufferedImage#TYPE_INT_ARGB} or {@link BufferedImage#TYPE_INT_RGB}
+     */
+    static BufferedImage readSubsampled(ImageReader reader, Rectangle region, int subsampling) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(region);
+        if (subsampling <= 1) {
+            return toCanonicalRaster(reader.read(0, param));
+        }
+        if (supportsSubsampling(reader)) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            return toCanonicalRaster(reader.read(0, param));
+        }
+
+        // the first type is the one the reader would create itself
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        SubsamplingDestination destination = types.hasNext() ? SubsamplingDestination.create(types.next(), region.width, region.height, subsampling) : null;
+        if (destination == null) {
+            // only the reader's image is full size, e.g. with packed bits much smaller than an int raster
+            return toCanonicalRaster(subsample(reader.read(0, param), subsampling));
+        }
+        param.setDestination(destination.getDestination());
+        reader.read(0, param);
+        return toCanonicalRaster(destination.getSubsampled());
+    }
 
+    /**
+     * Returns the first reader for given stream; for subsampled reads one which supports it correctly is preferred,
+     * see {@link #supportsSubsampling(ImageReader)}
+     *
+     * @return reader without input set or null if there is none
+     */
+    static ImageReader getReader(ImageInputStream stream, int subsampling) {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        ImageReader first = null;
+        while (readers.hasNext()) {
             ImageReader reader = readers.next();
-            try {
-                reader.setInput(input);
-                ImageReadParam param = reader.getDefaultReadParam();
-                param.setSourceRenderSize(sourceDimension);
-                return reader.read(0, param);
-            } finally {
-                reader.dispose();
+            if (first == null) {
+                first = reader;
+            }
+            if (subsampling <= 1 || supportsSubsampling(reader)) {
+                return reader;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * TwelveMonkeys' tiff reader (3.2) returns wrong pixels if read with source subsampling; such readers are
+     * subsampled while decoding by {@link #readSubsampled(ImageReader, Rectangle, int)}
+     */
+    static boolean supportsSubsampling(ImageReader reader) {
+        return !reader.getClass().getName().equals("com.twelvemonkeys.imageio.plugins.tiff.TIFFImageReader");
+    }
+
+    /**
+     * Keeps every n-th pixel of every n-th row, the same as a reader's source subsampling without offsets
+     *
+     * @param image       of any type
+     * @param subsampling factor, with 1 the image itself is returned
+     * @return subsampled image of the same color model, see {@link #getSubsampledDimension(Dimension, int)}
+     */
+    static BufferedImage subsample(BufferedImage image, int subsampling) {
+        if (image == null || subsampling <= 1) {
+            return image;
+        }
+        Dimension dimension = getSubsampledDimension(new Dimension(image.getWidth(), image.getHeight()), subsampling);
+        WritableRaster raster = image.getRaster();
+        WritableRaster subsampled = raster.createCompatibleWritableRaster(dimension.width, dimension.height);
+        Object pixel = null;
+        for (int y = 0; y < dimension.height; y++) {
+            for (int x = 0; x < dimension.width; x++) {
+                pixel = raster.getDataElements(x * subsampling, y * subsampling, pixel);
+                subsampled.setDataElements(x, y, pixel);
             }
         }
+        image.flush();
+        return new BufferedImage(image.getColorModel(), subsampled, image.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Converts an image to {@link BufferedImage#TYPE_INT_ARGB} or, if it has no alpha, {@link BufferedImage#TYPE_INT_RGB}.
+     * Readers return many layouts (e.g. indexed gifs, 3 byte jpegs, 16 bit or cmyk custom types), for which Java2D and
+     * the resamplers fall back to slow per pixel conversions; converting once at load time lets all of them use their
+     * packed int paths.
+     *
+     * @param image to convert, may be null
+     * @return the converted image or the given one if it already has one of these types
+     */
+    public static BufferedImage toCanonicalRaster(BufferedImage image) {
+        if (image == null || image.getType() == BufferedImage.TYPE_INT_ARGB || image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return image;
+        }
+
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(),
+                image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = converted.createGraphics();
+        try {
+            graphics.setComposite(AlphaComposite.Src);
+            graphics.drawImage(image, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        image.flush();
+        return converted;
     }
 
     /**
@@ -145,8 +340,7 @@ public class ImageUtil {
         Iterator<ImageReader> iter = ImageIO.getImageReadersBySuffix(suffix);
         if (iter.hasNext()) {
             ImageReader reader = iter.next();
-            try {
-                ImageInputStream stream = new FileImageInputStream(imgFile);
+            try (ImageInputStream stream = new FileImageInputStream(imgFile)) {
                 reader.setInput(stream);
                 int width = reader.getWidth(reader.getMinIndex());
                 int height = reader.getHeight(reader.getMinIndex());
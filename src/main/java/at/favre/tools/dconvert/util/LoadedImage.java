@@ -3,8 +3,15 @@ package at.favre.tools.dconvert.util;
 import com.twelvemonkeys.imageio.metadata.CompoundDirectory;
 
 import javax.imageio.metadata.IIOMetadata;
+import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Wraps a {@link java.awt.image.BufferedImage} and some other meta data
@@ -15,22 +22,71 @@ public class LoadedImage {
     private final BufferedImage image;
     private final IIOMetadata metadata;
     private final CompoundDirectory directory;
+    private final Dimension sourceDimension;
+    private final SvgDocument vectorImage;
+    private final Map<Object, CompletableFuture<byte[]>> encodedVariants = new ConcurrentHashMap<>();
+    private final AtomicLong encodedBytes = new AtomicLong();
+    private volatile MemoryBudget memoryBudget;
 
     public LoadedImage(File sourceFile, BufferedImage image, IIOMetadata metadata, CompoundDirectory directory) {
+        this(sourceFile, image, metadata, directory, image != null ? new Dimension(image.getWidth(), image.getHeight()) : null);
+    }
+
+    /**
+     * @param sourceDimension full resolution of the source, differs from the image's if it was decoded with subsampling
+     */
+    public LoadedImage(File sourceFile, BufferedImage image, IIOMetadata metadata, CompoundDirectory directory, Dimension sourceDimension) {
+        this(sourceFile, image, null, metadata, directory, sourceDimension);
+    }
+
+    /**
+     * Creates an image of a vector source, which is rendered for every target instead of being decoded once
+     */
+    public LoadedImage(File sourceFile, SvgDocument vectorImage, Dimension sourceDimension) {
+        this(sourceFile, null, vectorImage, null, null, sourceDimension);
+    }
+
+    private LoadedImage(File sourceFile, BufferedImage image, SvgDocument vectorImage, IIOMetadata metadata, CompoundDirectory directory, Dimension sourceDimension) {
         this.sourceFile = sourceFile;
         this.image = image;
+        this.vectorImage = vectorImage;
         this.metadata = metadata;
         this.directory = directory;
+        this.sourceDimension = sourceDimension;
     }
 
     public File getSourceFile() {
         return sourceFile;
     }
 
+    /**
+     * @return decoded image or null for vector sources, see {@link #isVector()}
+     */
     public BufferedImage getImage() {
         return image;
     }
 
+    /**
+     * @return true if this is a svg which is not decoded once, but rendered for every target with {@link #render(Dimension)}
+     */
+    public boolean isVector() {
+        return vectorImage != null;
+    }
+
+    /**
+     * Rasterizes a vector source directly at given size; the parsed document is shared by all callers and may be
+     * rendered by multiple threads at the same time
+     *
+     * @param targetDimension size of the returned image
+     * @return newly rendered image, owned by the caller
+     */
+    public BufferedImage render(Dimension targetDimension) {
+        if (!isVector()) {
+            throw new IllegalStateException("only vector sources can be rendered: " + sourceFile);
+        }
+        return vectorImage.render(targetDimension);
+    }
+
     public IIOMetadata getMetadata() {
         return metadata;
     }
@@ -38,4 +94,79 @@ public class LoadedImage {
     public CompoundDirectory getExif() {
         return directory;
     }
+
+    /**
+     * @return dimension of the source file; all targets are calculated from this, not from {@link #getImage()}
+     */
+    public Dimension getSourceDimension() {
+        return new Dimension(sourceDimension);
+    }
+
+    /**
+     * Returns the already encoded output for given variant of this image or encodes it with given encoder. Since this image
+     * is shared between all converters of a source, every distinct variant (e.g. same dimension and compression needed by
+     * multiple platforms) is only scaled and compressed once. Concurrent callers of the same variant wait for the first one;
+     * if it failed they will try it themselves. The kept variants are counted in the memory budget set with
+     * {@link #setMemoryBudget(MemoryBudget)} until this image is flushed.
+     *
+     * @param variant key identifying the output, must implement equals/hashCode
+     * @param encoder creates the output if not yet done
+     * @return encoded image - callers must not modify it
+     * @throws Exception if encoder failed
+     */
+    public byte[] getEncodedVariant(Object variant, Callable<byte[]> encoder) throws Exception {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = encodedVariants.putIfAbsent(variant, future);
+
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (ExecutionException e) {
+                return encoder.call();
+            }
+        }
+
+        byte[] encoded;
+        try {
+            encoded = encoder.call();
+        } catch (Throwable e) {
+            // also errors like OutOfMemoryError, otherwise waiting callers would block forever
+            encodedVariants.remove(variant, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+
+        encodedBytes.addAndGet(encoded.length);
+        MemoryBudget budget = memoryBudget;
+        if (budget != null) {
+            budget.add(encoded.length);
+        }
+        future.complete(encoded);
+        return encoded;
+    }
+
+    /**
+     * Counts the encoded variants kept by this image in given budget, they are released on {@link #flush()}
+     */
+    void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Frees the decoded image and all encoded variants
+     */
+    public void flush() {
+        encodedVariants.clear();
+        long bytes = encodedBytes.getAndSet(0);
+        MemoryBudget budget = memoryBudget;
+        if (budget != null && bytes > 0) {
+            budget.release(bytes);
+        }
+        if (image != null) {
+            image.flush();
+        }
+        if (vectorImage != null) {
+            vectorImage.flush();
+        }
+    }
 }
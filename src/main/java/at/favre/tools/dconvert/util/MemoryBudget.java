@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 Patrick Favre-Bulle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package at.favre.tools.dconvert.util;
+
+import java.awt.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Limits how many bytes of decoded images are estimated to be alive at the same time. Callers reserve the estimated
+ * footprint of a job before starting it and will block until enough of the budget is free. A job bigger than the
+ * whole budget is admitted as soon as nothing else is running, so it runs alone instead of never.
+ */
+public class MemoryBudget {
+    /**
+     * Default share of the max heap used if no explicit budget is set
+     */
+    public static final float DEFAULT_HEAP_FRACTION = 0.6f;
+    private static final int BYTES_PER_PIXEL = 4;
+    /**
+     * Rasters alive per target while scaling: the scaled image, a converted (e.g. flattened) copy and the buffers of
+     * the resampler
+     */
+    private static final int INTERMEDIATES_PER_TARGET = 3;
+    /**
+     * Rasters of the decoded source alive while loading: the reader's image and its int copy, see
+     * {@link ImageUtil#toCanonicalRaster(java.awt.image.BufferedImage)}
+     */
+    private static final int DECODED_COPIES = 2;
+
+    private final long maxBytes;
+    private long usedBytes;
+
+    /**
+     * @param maxMegaBytes budget in MB or 0 or less to use {@link #DEFAULT_HEAP_FRACTION} of the max heap
+     */
+    public MemoryBudget(int maxMegaBytes) {
+        this.maxBytes = maxMegaBytes > 0 ? maxMegaBytes * 1024L * 1024L : (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_FRACTION);
+    }
+
+    /**
+     * Reserves given bytes, blocks until enough of the budget is free. The wait is a
+     * {@link ForkJoinPool#managedBlock(ForkJoinPool.ManagedBlocker)}, so a pool may start a spare thread while one of
+     * its workers waits.
+     *
+     * @param bytes estimated footprint
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            private boolean acquired;
+
+            @Override
+            public boolean block() throws InterruptedException {
+                synchronized (MemoryBudget.this) {
+                    while (!fits(bytes)) {
+                        MemoryBudget.this.wait();
+                    }
+                    usedBytes += bytes;
+                }
+                acquired = true;
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return acquired || (acquired = tryAcquire(bytes));
+            }
+        });
+    }
+
+    /**
+     * Reserves given bytes if enough of the budget is free, without waiting
+     *
+     * @param bytes estimated footprint
+     * @return true if reserved
+     */
+    public synchronized boolean tryAcquire(long bytes) {
+        if (!fits(bytes)) {
+            return false;
+        }
+        usedBytes += bytes;
+        return true;
+    }
+
+    private boolean fits(long bytes) {
+        return usedBytes <= 0 || usedBytes + bytes <= maxBytes;
+    }
+
+    /**
+     * Counts bytes which are already allocated, e.g. encoded outputs kept for other converters, without waiting; may
+     * exceed the budget, so following reservations wait longer
+     *
+     * @param bytes to add to the used bytes, free them with {@link #release(long)}
+     */
+    public synchronized void add(long bytes) {
+        usedBytes += bytes;
+    }
+
+    /**
+     * Frees bytes reserved with {@link #acquire(long)} or {@link #add(long)}
+     *
+     * @param bytes same as acquired
+     */
+    public synchronized void release(long bytes) {
+        usedBytes -= bytes;
+        notifyAll();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Estimates the heap needed to convert a source: the decoded source with the reader's copy plus the largest target
+     * with its intermediates
+     *
+     * @param srcDimension          dimension of the decoded source
+     * @param largestTargetDimension biggest output dimension, may be null if unknown
+     * @return estimated bytes
+     */
+    public static long estimateFootprint(Dimension srcDimension, Dimension largestTargetDimension) {
+        long pixels = (long) srcDimension.width * srcDimension.height * DECODED_COPIES;
+        if (largestTargetDimension != null) {
+            pixels += (long) largestTargetDimension.width * largestTargetDimension.height * INTERMEDIATES_PER_TARGET;
+        }
+        return pixels * BYTES_PER_PIXEL;
+    }
+}
@@ -0,0 +1,500 @@
+/*
+ * Copyright (C) 2016 Patrick Favre-Bulle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package at.favre.tools.dconvert.util;
+
+import com.twelvemonkeys.imageio.color.ColorSpaces;
+
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads only the merged composite image of a psd or psb file: the header, the icc profile of the image resources, the
+ * layer count and the image data section. All other resources and the layers (usually most of a layered design file)
+ * are skipped without being parsed. The first extra channel is only used as transparency if the layer section says
+ * the composite has one, otherwise extra channels are saved selections and the composite is opaque.
+ * <p>
+ * Supports 8 and 16 bit grayscale and rgb composites in the sRGB color space, raw or RLE compressed - everything else
+ * returns null and should be read with the full ImageIO reader.
+ */
+public final class PsdCompositeReader {
+    private static final int SIGNATURE = 0x38425053; // 8BPS
+    private static final int RESOURCE_SIGNATURE = 0x3842494D; // 8BIM
+    private static final int RESOURCE_ICC_PROFILE = 1039;
+    private static final int COLOR_MODE_GRAYSCALE = 1;
+    private static final int COLOR_MODE_RGB = 3;
+    private static final int COLOR_MODE_CMYK = 4;
+    private static final int COLOR_MODE_LAB = 9;
+    private static final int COMPRESSION_RAW = 0;
+    private static final int COMPRESSION_RLE = 1;
+    /**
+     * Keys of additional layer information with an 8 byte length in psb files
+     */
+    private static final List<String> LONG_LENGTH_KEYS = Arrays.asList("LMsk", "Lr16", "Lr32", "Layr", "Mt16", "Mt32",
+            "Mtrn", "Alph", "FMsk", "lnk2", "FEid", "FXid", "PxSD");
+
+    private PsdCompositeReader() {
+    }
+
+    /**
+     * Reads the header info and the layer count only; the image resources and layers are skipped, the full ImageIO
+     * reader would parse all of them
+     *
+     * @param file psd or psb file
+     * @return info of the composite
+     * @throws IOException if the file is not a psd
+     */
+    public static ImageProbe.ImageInfo readInfo(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64))) {
+            if (in.readInt() != SIGNATURE) {
+                throw new IOException("not a psd file: " + file);
+            }
+            int version = in.readUnsignedShort();
+            skipFully(in, 6);
+            int channels = in.readUnsignedShort();
+            int height = in.readInt();
+            int width = in.readInt();
+            int depth = in.readUnsignedShort();
+            int colorMode = in.readUnsignedShort();
+
+            int colorChannels = Math.min(channels, colorMode == COLOR_MODE_RGB || colorMode == COLOR_MODE_LAB ? 3
+                    : colorMode == COLOR_MODE_CMYK ? 4 : 1);
+            boolean hasAlpha = false;
+            if (channels > colorChannels) {
+                skipFully(in, readUnsignedInt(in)); // color mode data
+                skipFully(in, readUnsignedInt(in)); // image resources
+                hasAlpha = hasMergedTransparency(in, version, readLength(in, version));
+            }
+            int components = hasAlpha ? colorChannels + 1 : colorChannels;
+            return new ImageProbe.ImageInfo(new Dimension(width, height), hasAlpha, components * depth, components);
+        }
+    }
+
+    /**
+     * Reads the composite of given psd
+     *
+     * @param file        psd or psb file
+     * @param subsampling 1 to read the full image, otherwise only every n-th pixel of every n-th row is kept
+     * @return image of type {@link BufferedImage#TYPE_INT_ARGB} or {@link BufferedImage#TYPE_INT_RGB} with the full
+     * dimension as source dimension, or null if the file is not supported by this reader
+     * @throws IOException if the file could not be read
+     */
+    public static LoadedImage read(File file, int subsampling) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            Header header = readHeader(in, file);
+            if (header == null) {
+                return null;
+            }
+
+            Dimension dimension = ImageUtil.getSubsampledDimension(new Dimension(header.width, header.height), subsampling);
+            BufferedImage image = new BufferedImage(dimension.width, dimension.height, header.hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+            int[] rowLengths = readRowLengths(in, header);
+            ChannelReader reader = new ChannelReader(in, header);
+            for (int channel = 0; channel < header.getUsedChannels(); channel++) {
+                int[] shifts = header.getShifts(channel);
+                for (int y = 0; y < header.height; y++) {
+                    reader.readRow(rowLengths != null ? rowLengths[channel * header.height + y] : 0);
+                    if (y % subsampling == 0) {
+                        reader.storeRow(pixels, (y / subsampling) * dimension.width, dimension.width, subsampling, shifts);
+                    }
+                }
+            }
+
+            if (header.hasAlpha) {
+                decomposeAlpha(pixels);
+            }
+            return new LoadedImage(file, image, null, null, new Dimension(header.width, header.height));
+        }
+    }
+
+    /**
+     * Reads the composite of given psd row by row, so it never has to fit into memory. The planar channels are read
+     * in parallel with their own stream each.
+     *
+     * @param file     psd or psb file
+     * @param consumer gets all rows from top to bottom
+     * @return false if the file is not supported by this reader, the consumer is not called then
+     * @throws IOException if the file could not be read
+     */
+    static boolean readRows(File file, RowConsumer consumer) throws IOException {
+        Header header;
+        int[] rowLengths;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            header = readHeader(in, file);
+            if (header == null) {
+                return false;
+            }
+            rowLengths = readRowLengths(in, header);
+        }
+
+        ChannelReader[] readers = new ChannelReader[header.getUsedChannels()];
+        try {
+            long offset = header.dataOffset + (rowLengths != null ? (long) rowLengths.length * (header.version == 2 ? 4 : 2) : 0);
+            for (int channel = 0; channel < readers.length; channel++) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+                readers[channel] = new ChannelReader(in, header);
+                skipFully(in, offset);
+                if (rowLengths != null) {
+                    for (int y = 0; y < header.height; y++) {
+                        offset += rowLengths[channel * header.height + y];
+                    }
+                } else {
+                    offset += (long) header.height * header.width * (header.depth / 8);
+                }
+            }
+
+            consumer.start(header.width, header.height, header.hasAlpha);
+            int[] row = new int[header.width];
+            for (int y = 0; y < header.height; y++) {
+                Arrays.fill(row, header.hasAlpha ? 0 : 0xFF000000);
+                for (int channel = 0; channel < readers.length; channel++) {
+                    readers[channel].readRow(rowLengths != null ? rowLengths[channel * header.height + y] : 0);
+                    readers[channel].storeRow(row, 0, header.width, 1, header.getShifts(channel));
+                }
+                if (header.hasAlpha) {
+                    decomposeAlpha(row);
+                }
+                consumer.accept(row);
+            }
+            return true;
+        } finally {
+            for (ChannelReader reader : readers) {
+                if (reader != null) {
+                    reader.in.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads everything up to the image data
+     *
+     * @return header or null if the file is not supported by this reader
+     */
+    private static Header readHeader(DataInputStream in, File file) throws IOException {
+        if (in.readInt() != SIGNATURE) {
+            throw new IOException("not a psd file: " + file);
+        }
+        Header header = new Header();
+        header.version = in.readUnsignedShort();
+        skipFully(in, 6);
+        header.channels = in.readUnsignedShort();
+        header.height = in.readInt();
+        header.width = in.readInt();
+        header.depth = in.readUnsignedShort();
+        header.colorMode = in.readUnsignedShort();
+
+        header.colorChannels = header.colorMode == COLOR_MODE_RGB ? 3 : 1;
+        if ((header.version != 1 && header.version != 2) || (header.colorMode != COLOR_MODE_RGB && header.colorMode != COLOR_MODE_GRAYSCALE)
+                || (header.depth != 8 && header.depth != 16) || header.channels < header.colorChannels) {
+            return null;
+        }
+
+        long colorModeDataLength = readUnsignedInt(in);
+        skipFully(in, colorModeDataLength);
+        long resourcesLength = readUnsignedInt(in);
+        if (!hasSRGBProfile(in, resourcesLength)) {
+            return null;
+        }
+        long layerAndMaskLength = readLength(in, header.version);
+        header.hasAlpha = hasMergedTransparency(in, header.version, layerAndMaskLength) && header.channels > header.colorChannels;
+
+        header.compression = in.readUnsignedShort();
+        if (header.compression != COMPRESSION_RAW && header.compression != COMPRESSION_RLE) {
+            return null;
+        }
+        header.dataOffset = 26 + 4 + colorModeDataLength + 4 + resourcesLength + (header.version == 2 ? 8 : 4) + layerAndMaskLength + 2;
+        return header;
+    }
+
+    /**
+     * @return the compressed byte count of every row of every channel or null if the data is not compressed
+     */
+    private static int[] readRowLengths(DataInputStream in, Header header) throws IOException {
+        if (header.compression != COMPRESSION_RLE) {
+            return null;
+        }
+        int[] rowLengths = new int[header.channels * header.height];
+        for (int i = 0; i < rowLengths.length; i++) {
+            rowLengths[i] = header.version == 2 ? in.readInt() : in.readUnsignedShort();
+        }
+        return rowLengths;
+    }
+
+    /**
+     * Reads the layer and mask section up to its end. A negative layer count, also in the 16 or 32 bit layer info of
+     * the additional layer information, or a merged transparency key mean the first extra channel is the transparency
+     * of the composite.
+     */
+    private static boolean hasMergedTransparency(DataInputStream in, int version, long sectionLength) throws IOException {
+        long remaining = sectionLength;
+        if (remaining == 0) {
+            return false;
+        }
+
+        boolean hasTransparency = false;
+        long layerInfoLength = readLength(in, version);
+        remaining -= (version == 2 ? 8 : 4) + layerInfoLength;
+        if (layerInfoLength >= 2) {
+            hasTransparency = in.readShort() < 0;
+            skipFully(in, layerInfoLength - 2);
+        } else {
+            skipFully(in, layerInfoLength);
+        }
+
+        if (remaining >= 4) {
+            long globalMaskLength = readUnsignedInt(in);
+            skipFully(in, globalMaskLength);
+            remaining -= 4 + globalMaskLength;
+        }
+
+        // additional layer information: signature, key, length and data
+        while (remaining >= 12) {
+            skipFully(in, 4);
+            String key = readKey(in);
+            boolean longLength = version == 2 && LONG_LENGTH_KEYS.contains(key);
+            long length = longLength ? in.readLong() : readUnsignedInt(in);
+            remaining -= 8 + (longLength ? 8 : 4) + length;
+            if (key.equals("Mtrn") || key.equals("Mt16") || key.equals("Mt32")) {
+                hasTransparency = true;
+                skipFully(in, length);
+            } else if ((key.equals("Lr16") || key.equals("Lr32")) && length >= 2) {
+                hasTransparency |= in.readShort() < 0;
+                skipFully(in, length - 2);
+            } else {
+                skipFully(in, length);
+            }
+        }
+        skipFully(in, remaining);
+        return hasTransparency;
+    }
+
+    private static long readLength(DataInputStream in, int version) throws IOException {
+        return version == 2 ? in.readLong() : readUnsignedInt(in);
+    }
+
+    private static String readKey(DataInputStream in) throws IOException {
+        byte[] key = new byte[4];
+        in.readFully(key);
+        return new String(key, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Reads the image resources section and checks if its icc profile, if any, is sRGB
+     */
+    private static boolean hasSRGBProfile(DataInputStream in, long length) throws IOException {
+        boolean isSRGB = true;
+        long remaining = length;
+        while (remaining >= 12) {
+            if (in.readInt() != RESOURCE_SIGNATURE) {
+                throw new IOException("invalid psd image resource");
+            }
+            int id = in.readUnsignedShort();
+            int nameLength = in.readUnsignedByte();
+            int paddedNameLength = (nameLength + 2) & ~1; // includes the length byte
+            skipFully(in, paddedNameLength - 1);
+            long size = readUnsignedInt(in);
+            long paddedSize = (size + 1) & ~1L;
+
+            if (id == RESOURCE_ICC_PROFILE) {
+                byte[] profile = new byte[(int) size];
+                in.readFully(profile);
+                skipFully(in, paddedSize - size);
+                try {
+                    isSRGB = isSRGB(ICC_Profile.getInstance(profile));
+                } catch (IllegalArgumentException e) {
+                    isSRGB = false;
+                }
+            } else {
+                skipFully(in, paddedSize);
+            }
+            remaining -= 4 + 2 + paddedNameLength + 4 + paddedSize;
+        }
+        skipFully(in, remaining);
+        return isSRGB;
+    }
+
+    /**
+     * Also accepts the "sRGB IEC61966-2.1" profile embedded by Photoshop, which is not equal to the JDK's one
+     */
+    private static boolean isSRGB(ICC_Profile profile) {
+        if (profile.getColorSpaceType() != ColorSpace.TYPE_RGB) {
+            return false;
+        }
+        if (ColorSpaces.isCS_sRGB(profile)) {
+            return true;
+        }
+        // v2 textDescriptionType: signature, reserved, ascii length, ascii description
+        byte[] description = profile.getData(ICC_Profile.icSigProfileDescriptionTag);
+        return description != null && description.length > 16
+                && new String(description, 12, description.length - 12, StandardCharsets.US_ASCII).startsWith("sRGB");
+    }
+
+    /**
+     * Photoshop stores transparent composites of every color mode and depth matted against white; reverts that like
+     * the TwelveMonkeys reader does for 8 bit rgb
+     */
+    private static void decomposeAlpha(int[] pixels) {
+        for (int i = 0; i < pixels.length; i++) {
+            int alpha = pixels[i] >>> 24;
+            if (alpha == 0) {
+                pixels[i] = 0;
+            } else if (alpha != 255) {
+                double a = alpha / 255.0;
+                pixels[i] = (alpha << 24) | (decompose((pixels[i] >> 16) & 0xFF, a) << 16)
+                        | (decompose((pixels[i] >> 8) & 0xFF, a) << 8) | decompose(pixels[i] & 0xFF, a);
+            }
+        }
+    }
+
+    private static int decompose(int color, double alpha) {
+        int value = (int) ((color / 255.0 - (1 - alpha)) / alpha * 255);
+        return Math.max(0, Math.min(255, value));
+    }
+
+    private static long readUnsignedInt(DataInputStream in) throws IOException {
+        return in.readInt() & 0xFFFFFFFFL;
+    }
+
+    private static void skipFully(DataInputStream in, long count) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static final class Header {
+        private int version;
+        private int channels;
+        private int width;
+        private int height;
+        private int depth;
+        private int colorMode;
+        private int colorChannels;
+        private boolean hasAlpha;
+        private int compression;
+        private long dataOffset;
+
+        int getUsedChannels() {
+            return hasAlpha ? colorChannels + 1 : colorChannels;
+        }
+
+        /**
+         * The first extra channel is the transparency of the composite; gray is copied to all color bytes
+         */
+        int[] getShifts(int channel) {
+            return channel == colorChannels ? new int[]{24} : colorChannels == 1 ? new int[]{16, 8, 0} : new int[]{16 - 8 * channel};
+        }
+    }
+
+    /**
+     * Reads rows of the planar channels of the image data section into packed int pixels
+     */
+    private static final class ChannelReader {
+        private final DataInputStream in;
+        private final int compression;
+        private final int bytesPerSample;
+        private final byte[] row;
+        private byte[] packedRow;
+
+        ChannelReader(DataInputStream in, Header header) {
+            this.in = in;
+            this.compression = header.compression;
+            this.bytesPerSample = header.depth / 8;
+            this.row = new byte[header.width * bytesPerSample];
+            this.packedRow = compression == COMPRESSION_RLE ? new byte[row.length + (row.length + 127) / 128] : null;
+        }
+
+        /**
+         * @param length compressed length of the row, ignored for raw data
+         */
+        void readRow(int length) throws IOException {
+            if (compression == COMPRESSION_RLE) {
+                readRleRow(length);
+            } else {
+                in.readFully(row);
+            }
+        }
+
+        void storeRow(int[] pixels, int offset, int width, int subsampling, int[] shifts) {
+            for (int x = 0; x < width; x++) {
+                int sampleIndex = x * subsampling * bytesPerSample;
+                int value = bytesPerSample == 1 ? row[sampleIndex] & 0xFF
+                        : (((row[sampleIndex] & 0xFF) << 8 | (row[sampleIndex + 1] & 0xFF)) * 255 + 32767) / 65535;
+                for (int shift : shifts) {
+                    pixels[offset + x] |= value << shift;
+                }
+            }
+        }
+
+        /**
+         * Decodes a PackBits compressed row
+         */
+        private void readRleRow(int length) throws IOException {
+            if (length > packedRow.length) {
+                // a row of single byte literals is the worst case of valid packbits
+                if (length > 2 * row.length) {
+                    throw new IOException("invalid psd rle row length " + length);
+                }
+                packedRow = new byte[length];
+            }
+            in.readFully(packedRow, 0, length);
+
+            int src = 0;
+            int dst = 0;
+            while (src < length && dst < row.length) {
+                int header = packedRow[src++];
+                if (header >= 0) {
+                    int count = Math.min(header + 1, row.length - dst);
+                    System.arraycopy(packedRow, src, row, dst, count);
+                    src += header + 1;
+                    dst += count;
+                } else if (header != -128) {
+                    int count = Math.min(1 - header, row.length - dst);
+                    byte value = packedRow[src++];
+                    for (int i = 0; i < count; i++) {
+                        row[dst++] = value;
+                    }
+                }
+            }
+            if (dst < row.length) {
+                throw new IOException("truncated psd rle row");
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2016 Patrick Favre-Bulle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package at.favre.tools.dconvert.util;
+
+/**
+ * Receives the rows of an image from top to bottom as packed argb pixels
+ */
+interface RowConsumer {
+    /**
+     * Called once before the first row
+     */
+    void start(int width, int height, boolean hasAlpha);
+
+    /**
+     * @param argb the next row, only valid during the call
+     */
+    void accept(int[] argb);
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2016 Patrick Favre-Bulle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package at.favre.tools.dconvert.util;
+
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read destination which passes every row to a {@link RowConsumer} as soon as the reader wrote all of its samples,
+ * so the image is read in a single pass without ever being held at full size. Only the rows the reader has not
+ * finished yet are buffered, e.g. a row of tiles.
+ */
+final class RowDestination {
+    private final BufferedImage destination;
+    private final RowDataBuffer buffer;
+
+    private RowDestination(BufferedImage destination, RowDataBuffer buffer) {
+        this.destination = destination;
+        this.buffer = buffer;
+    }
+
+    /**
+     * @param type     type the reader decodes to
+     * @param width    width of the image
+     * @param height   height of the image
+     * @param consumer gets the rows, {@link RowConsumer#start(int, int, boolean)} is already called here
+     * @return destination or null if the data layout of the type is not supported (e.g. multiple pixels per byte)
+     */
+    static RowDestination create(ImageTypeSpecifier type, int width, int height, RowConsumer consumer) {
+        SampleModel model = type.getSampleModel(width, height);
+        SampleModel rowModel = model.createCompatibleSampleModel(width, 1);
+        int dataType = model.getDataType();
+        if (dataType != DataBuffer.TYPE_BYTE && dataType != DataBuffer.TYPE_USHORT && dataType != DataBuffer.TYPE_SHORT
+                && dataType != DataBuffer.TYPE_INT) {
+            return null;
+        }
+
+        int scanlineStride;
+        int banks;
+        if (model instanceof ComponentSampleModel && rowModel instanceof ComponentSampleModel) {
+            scanlineStride = ((ComponentSampleModel) model).getScanlineStride();
+            banks = ((ComponentSampleModel) model).getBankIndices().length;
+            if (scanlineStride != ((ComponentSampleModel) rowModel).getScanlineStride()) {
+                return null;
+            }
+        } else if (model instanceof SinglePixelPackedSampleModel && rowModel instanceof SinglePixelPackedSampleModel) {
+            scanlineStride = ((SinglePixelPackedSampleModel) model).getScanlineStride();
+            banks = 1;
+            if (scanlineStride != ((SinglePixelPackedSampleModel) rowModel).getScanlineStride()) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+        if ((long) scanlineStride * height > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        ColorModel colorModel = type.getColorModel();
+        consumer.start(width, height, colorModel.hasAlpha());
+        RowDataBuffer buffer = new RowDataBuffer(dataType, scanlineStride * height, banks, scanlineStride,
+                width * model.getNumDataElements(), height, rowModel, colorModel, consumer);
+        BufferedImage destination = new BufferedImage(colorModel, Raster.createWritableRaster(model, buffer, null),
+                colorModel.isAlphaPremultiplied(), null);
+        return new RowDestination(destination, buffer);
+    }
+
+    /**
+     * @return destination for {@link javax.imageio.ImageReadParam#setDestination(BufferedImage)}, of the full size of
+     * the image
+     */
+    BufferedImage getDestination() {
+        return destination;
+    }
+
+    /**
+     * Passes the rows the reader did not fill completely (e.g. of a truncated image), missing samples are 0
+     */
+    void finish() {
+        buffer.finish();
+    }
+
+    /**
+     * Collects the elements of unfinished rows and passes every finished one in order
+     */
+    private static final class RowDataBuffer extends DataBuffer {
+        private final int scanlineStride;
+        private final int elementsPerRow;
+        private final int height;
+        private final SampleModel rowModel;
+        private final ColorModel colorModel;
+        private final RowConsumer consumer;
+        private final Map<Integer, Row> rows = new HashMap<>();
+        private final Deque<Row> unusedRows = new ArrayDeque<>();
+        private final int[] argb;
+        private int nextRow;
+        private int lastRowY = -1;
+        private Row lastRow;
+
+        RowDataBuffer(int dataType, int size, int banks, int scanlineStride, int elementsPerRow, int height,
+                      SampleModel rowModel, ColorModel colorModel, RowConsumer consumer) {
+            super(dataType, size, banks);
+            this.scanlineStride = scanlineStride;
+            this.elementsPerRow = elementsPerRow;
+            this.height = height;
+            this.rowModel = rowModel;
+            this.colorModel = colorModel;
+            this.consumer = consumer;
+            this.argb = new int[rowModel.getWidth()];
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            int y = i / scanlineStride;
+            Row row = y == lastRowY ? lastRow : rows.get(y);
+            return row == null ? 0 : row.data.getElem(bank, i % scanlineStride);
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            int y = i / scanlineStride;
+            if (y < nextRow) {
+                // already passed on
+                return;
+            }
+            if (y != lastRowY) {
+                // readers write row by row, so the lookup is only needed for the first element of a row
+                lastRow = getRow(y);
+                lastRowY = y;
+            }
+            Row row = lastRow;
+            int element = i - y * scanlineStride;
+            row.data.setElem(bank, element, val);
+            int index = bank * scanlineStride + element;
+            if (!row.written.get(index)) {
+                row.written.set(index);
+                if (++row.writtenCount == elementsPerRow) {
+                    passFinishedRows();
+                }
+            }
+        }
+
+        private void passFinishedRows() {
+            Row row;
+            while (nextRow < height && (row = rows.get(nextRow)) != null && row.writtenCount >= elementsPerRow) {
+                pass(row);
+            }
+        }
+
+        private void pass(Row row) {
+            if (row.writtenCount < elementsPerRow) {
+                // a reused row still holds the samples of an earlier one
+                int elements = getNumBanks() * scanlineStride;
+                for (int index = row.written.nextClearBit(0); index < elements; index = row.written.nextClearBit(index + 1)) {
+                    row.data.setElem(index / scanlineStride, index % scanlineStride, 0);
+                }
+            }
+            BufferedImage image = new BufferedImage(colorModel, Raster.createWritableRaster(rowModel, row.data, null),
+                    colorModel.isAlphaPremultiplied(), null);
+            image.getRGB(0, 0, argb.length, 1, argb, 0, argb.length);
+            consumer.accept(argb);
+
+            rows.remove(nextRow);
+            if (lastRowY == nextRow) {
+                lastRowY = -1;
+            }
+            nextRow++;
+            row.clear();
+            unusedRows.push(row);
+        }
+
+        void finish() {
+            while (nextRow < height) {
+                pass(getRow(nextRow));
+            }
+        }
+
+        private Row getRow(int y) {
+            Row row = rows.get(y);
+            if (row == null) {
+                row = unusedRows.isEmpty() ? new Row(rowModel.createDataBuffer(), getNumBanks() * scanlineStride) : unusedRows.pop();
+                rows.put(y, row);
+            }
+            return row;
+        }
+    }
+
+    private static final class Row {
+        private final DataBuffer data;
+        private final BitSet written;
+        private int writtenCount;
+
+        Row(DataBuffer data, int elements) {
+            this.data = data;
+            this.written = new BitSet(elements);
+        }
+
+        void clear() {
+            written.clear();
+            writtenCount = 0;
+        }
+    }
+}
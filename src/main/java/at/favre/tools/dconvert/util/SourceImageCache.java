@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2016 Patrick Favre-Bulle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package at.favre.tools.dconvert.util;
+
+import java.awt.*;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reference counted cache of decoded source images. All users of a source file should be registered
+ * with {@link #register(File, int)} before the first one calls {@link #acquire(File)}, so the image is only decoded
+ * once, no matter how many platform converters need it. The image is flushed as soon as the last user
+ * returned it with {@link #release(File)}.
+ * <p>
+ * Entries are keyed by path only, so registration, prefetching and release always meet the same entry; a file changed
+ * since it was decoded is decoded again on the next {@link #acquire(File)}. Files acquired without registration are
+ * treated as having exactly one user.
+ */
+public class SourceImageCache {
+    private final Map<Key, Entry> cache = new ConcurrentHashMap<>();
+    private final MemoryBudget memoryBudget;
+
+    public SourceImageCache() {
+        this(null);
+    }
+
+    /**
+     * @param memoryBudget counts the encoded variants kept by the cached images, may be null
+     */
+    public SourceImageCache(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Registers additional users of the given source file
+     *
+     * @param srcFile source image
+     * @param users   how many times {@link #acquire(File)} will be called for this file
+     */
+    public void register(File srcFile, int users) {
+        cache.compute(new Key(srcFile), (key, entry) -> {
+            if (entry == null) {
+                entry = new Entry(memoryBudget);
+            }
+            entry.registered = true;
+            entry.users += users;
+            return entry;
+        });
+    }
+
+    /**
+     * Lets a registered source be decoded at a reduced resolution, if it was not decoded yet. Must only be set if no
+     * user needs more than the subsampled image, see {@link ImageUtil#getSubsampling(java.awt.Dimension, java.awt.Dimension)}
+     *
+     * @param srcFile     source image
+     * @param subsampling factor, 1 to decode the full image
+     */
+    public void setSubsampling(File srcFile, int subsampling) {
+        cache.computeIfPresent(new Key(srcFile), (key, entry) -> {
+            entry.subsampling = subsampling;
+            return entry;
+        });
+    }
+
+    /**
+     * Lets a registered huge source be reduced to given dimension row by row while decoding, if it was not
+     * decoded yet. Takes precedence over {@link #setSubsampling(File, int)}.
+     *
+     * @param srcFile          source image
+     * @param reducedDimension see {@link ImageUtil#getBandedDecodingDimension(File, java.awt.Dimension, java.awt.Dimension)}
+     */
+    public void setBandedDecoding(File srcFile, Dimension reducedDimension) {
+        cache.computeIfPresent(new Key(srcFile), (key, entry) -> {
+            entry.bandedDimension = reducedDimension;
+            return entry;
+        });
+    }
+
+    /**
+     * Returns the decoded image of given file; will block if another thread is currently decoding it.
+     * Every call must be followed by a call to {@link #release(File)}, even if this method throws.
+     *
+     * @param srcFile source image
+     * @return the shared decoded image - callers must not modify or flush it
+     * @throws Exception if the image could not be decoded
+     */
+    public LoadedImage acquire(File srcFile) throws Exception {
+        return cache.computeIfAbsent(new Key(srcFile), key -> {
+            Entry entry = new Entry(memoryBudget);
+            entry.users = 1;
+            return entry;
+        }).get(srcFile);
+    }
+
+    /**
+     * Returns the image acquired with {@link #acquire(File)}. If this was the last registered user the image will be
+     * removed from the cache and flushed.
+     *
+     * @param srcFile source image
+     */
+    public void release(File srcFile) {
+        cache.computeIfPresent(new Key(srcFile), (key, entry) -> {
+            if (--entry.users <= 0) {
+                entry.flush();
+                return null;
+            }
+            return entry;
+        });
+    }
+
+    /**
+     * Decodes a registered source ahead of its first {@link #acquire(File)}, e.g. in a background thread, so its users
+     * find it ready. Does nothing if the file is not registered (anymore); a failure is thrown to the users on acquire.
+     *
+     * @param srcFile source image
+     */
+    public void prefetch(File srcFile) {
+        Entry entry = cache.get(new Key(srcFile));
+        if (entry != null) {
+            entry.prefetch(srcFile);
+        }
+    }
+
+    /**
+     * Returns a registered use of the source without ever acquiring it, e.g. because all of its outputs were
+     * skipped. Does nothing for files which were not registered.
+     *
+     * @param srcFile source image
+     */
+    public void skip(File srcFile) {
+        cache.computeIfPresent(new Key(srcFile), (key, entry) -> {
+            if (!entry.registered) {
+                return entry;
+            }
+            if (--entry.users <= 0) {
+                entry.flush();
+                return null;
+            }
+            return entry;
+        });
+    }
+
+    /**
+     * @return count of source files currently held (decoded or waiting to be decoded)
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    private static class Entry {
+        private final MemoryBudget memoryBudget;
+        private int users;
+        private boolean registered;
+        private volatile int subsampling = 1;
+        private volatile Dimension bandedDimension;
+        private LoadedImage image;
+        private Exception loadException;
+        private long loadedLastModified;
+        private boolean flushed;
+
+        Entry(MemoryBudget memoryBudget) {
+            this.memoryBudget = memoryBudget;
+        }
+
+        synchronized LoadedImage get(File srcFile) throws Exception {
+            if ((image != null || loadException != null) && srcFile.lastModified() != loadedLastModified) {
+                // changed since decoded, users which already got the old image keep it
+                if (image != null) {
+                    image.flush();
+                }
+                image = null;
+                loadException = null;
+            }
+            if (image == null && loadException == null) {
+                loadedLastModified = srcFile.lastModified();
+                try {
+                    image = bandedDimension != null ? ImageUtil.loadImageBanded(srcFile, bandedDimension) : ImageUtil.loadImage(srcFile, subsampling);
+                    image.setMemoryBudget(memoryBudget);
+                } catch (Exception e) {
+                    loadException = e;
+                }
+            }
+
+            if (loadException != null) {
+                throw loadException;
+            }
+            return image;
+        }
+
+        synchronized void prefetch(File srcFile) {
+            if (!flushed) {
+                try {
+                    get(srcFile);
+                } catch (Exception e) {
+                    // kept in loadException
+                }
+            }
+        }
+
+        synchronized void flush() {
+            if (image != null) {
+                image.flush();
+            }
+            image = null;
+            flushed = true;
+        }
+    }
+
+    private static class Key {
+        private final String path;
+
+        Key(File file) {
+            this.path = file.getAbsolutePath();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016 Patrick Favre-Bulle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package at.favre.tools.dconvert.util;
+
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+
+/**
+ * Read destination for readers without source subsampling (see {@link ImageUtil#supportsSubsampling(javax.imageio.ImageReader)}).
+ * The reader writes every decoded row at full resolution, but the data buffer only keeps every n-th pixel of every n-th
+ * row, so rows are subsampled as they arrive and the full resolution image is never allocated.
+ */
+final class SubsamplingDestination {
+    private final BufferedImage destination;
+    private final BufferedImage subsampled;
+
+    private SubsamplingDestination(BufferedImage destination, BufferedImage subsampled) {
+        this.destination = destination;
+        this.subsampled = subsampled;
+    }
+
+    /**
+     * @param type        type the reader decodes to
+     * @param width       width of the read region
+     * @param height      height of the read region
+     * @param subsampling keeps every n-th pixel of every n-th row, starting with the first
+     * @return destination or null if the data layout of the type is not supported (e.g. multiple pixels per byte)
+     */
+    static SubsamplingDestination create(ImageTypeSpecifier type, int width, int height, int subsampling) {
+        BufferedImage subsampled = type.createBufferedImage((width + subsampling - 1) / subsampling, (height + subsampling - 1) / subsampling);
+        SampleModel subsampledModel = subsampled.getSampleModel();
+        SampleModel model = subsampledModel.createCompatibleSampleModel(width, height);
+
+        int scanlineStride;
+        int pixelStride;
+        if (model instanceof ComponentSampleModel) {
+            if (!Arrays.equals(((ComponentSampleModel) model).getBandOffsets(), ((ComponentSampleModel) subsampledModel).getBandOffsets())) {
+                return null;
+            }
+            scanlineStride = ((ComponentSampleModel) model).getScanlineStride();
+            pixelStride = ((ComponentSampleModel) model).getPixelStride();
+        } else if (model instanceof SinglePixelPackedSampleModel) {
+            scanlineStride = ((SinglePixelPackedSampleModel) model).getScanlineStride();
+            pixelStride = 1;
+        } else {
+            return null;
+        }
+
+        DataBuffer buffer = subsampled.getRaster().getDataBuffer();
+        if ((long) scanlineStride * height > Integer.MAX_VALUE || Arrays.stream(buffer.getOffsets()).anyMatch(offset -> offset != 0)) {
+            return null;
+        }
+
+        int subsampledScanlineStride = subsampledModel instanceof ComponentSampleModel
+                ? ((ComponentSampleModel) subsampledModel).getScanlineStride()
+                : ((SinglePixelPackedSampleModel) subsampledModel).getScanlineStride();
+        SubsamplingDataBuffer subsamplingBuffer = new SubsamplingDataBuffer(buffer, scanlineStride * height, scanlineStride,
+                pixelStride, subsampledScanlineStride, subsampling);
+        BufferedImage destination = new BufferedImage(subsampled.getColorModel(), Raster.createWritableRaster(model, subsamplingBuffer, null),
+                subsampled.isAlphaPremultiplied(), null);
+        return new SubsamplingDestination(destination, subsampled);
+    }
+
+    /**
+     * @return destination for {@link javax.imageio.ImageReadParam#setDestination(BufferedImage)}, of the full size of
+     * the read region
+     */
+    BufferedImage getDestination() {
+        return destination;
+    }
+
+    /**
+     * @return the kept pixels, in the type of the reader
+     */
+    BufferedImage getSubsampled() {
+        return subsampled;
+    }
+
+    /**
+     * Maps the elements of the full resolution layout to the subsampled buffer and drops the ones of skipped pixels
+     */
+    private static final class SubsamplingDataBuffer extends DataBuffer {
+        private final DataBuffer subsampled;
+        private final int scanlineStride;
+        private final int pixelStride;
+        private final int subsampledScanlineStride;
+        private final int subsampling;
+
+        SubsamplingDataBuffer(DataBuffer subsampled, int size, int scanlineStride, int pixelStride, int subsampledScanlineStride, int subsampling) {
+            super(subsampled.getDataType(), size, subsampled.getNumBanks());
+            this.subsampled = subsampled;
+            this.scanlineStride = scanlineStride;
+            this.pixelStride = pixelStride;
+            this.subsampledScanlineStride = subsampledScanlineStride;
+            this.subsampling = subsampling;
+        }
+
+        /**
+         * @return index in the subsampled buffer or -1 if the element belongs to a skipped pixel
+         */
+        private int map(int i) {
+            int y = i / scanlineStride;
+            if (y % subsampling != 0) {
+                return -1;
+            }
+            int element = i - y * scanlineStride;
+            int x = element / pixelStride;
+            if (x % subsampling != 0) {
+                return -1;
+            }
+            return y / subsampling * subsampledScanlineStride + x / subsampling * pixelStride + element - x * pixelStride;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            int index = map(i);
+            return index < 0 ? 0 : subsampled.getElem(bank, index);
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            int index = map(i);
+            if (index >= 0) {
+                subsampled.setElem(bank, index, val);
+            }
+        }
+
+        @Override
+        public float getElemFloat(int bank, int i) {
+            int index = map(i);
+            return index < 0 ? 0 : subsampled.getElemFloat(bank, index);
+        }
+
+        @Override
+        public void setElemFloat(int bank, int i, float val) {
+            int index = map(i);
+            if (index >= 0) {
+                subsampled.setElemFloat(bank, index, val);
+            }
+        }
+
+        @Override
+        public double getElemDouble(int bank, int i) {
+            int index = map(i);
+            return index < 0 ? 0 : subsampled.getElemDouble(bank, index);
+        }
+
+        @Override
+        public void setElemDouble(int bank, int i, double val) {
+            int index = map(i);
+            if (index >= 0) {
+                subsampled.setElemDouble(bank, index, val);
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2016 Patrick Favre-Bulle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package at.favre.tools.dconvert.util;
+
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.DocumentLoader;
+import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.UserAgent;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.dom.svg.SAXSVGDocumentFactory;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.util.XMLResourceDescriptor;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.svg.SVGDocument;
+
+import java.awt.*;
+import java.awt.geom.Dimension2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A svg which is parsed only once and can then be rendered at any size from multiple threads at the same time.
+ * <p>
+ * Batik's bridge contexts and GVT trees are not thread safe, so every concurrent render uses its own tree, built from
+ * a copy of the parsed document. Trees are kept after rendering and reused by the next render, so usually only as
+ * many trees are built as threads render this document in parallel.
+ */
+public class SvgDocument {
+    /**
+     * Viewport for documents with relative sizes, same as used by Batik's transcoders
+     */
+    private static final Dimension DEFAULT_VIEWPORT = new Dimension(400, 400);
+    private static final Pattern LENGTH = Pattern.compile("([+-]?(?:\\d+\\.?\\d*|\\.\\d+)(?:[eE][+-]?\\d+)?)(px|in|cm|mm|pt|pc|em|ex|%)?");
+
+    private final SVGDocument document;
+    private final Queue<Renderer> idleRenderers = new ConcurrentLinkedQueue<>();
+
+    private SvgDocument(SVGDocument document) {
+        this.document = document;
+    }
+
+    /**
+     * Parses given svg file
+     *
+     * @param file svg file
+     * @return parsed document
+     * @throws IOException if the file could not be read or parsed
+     */
+    public static SvgDocument parse(File file) throws IOException {
+        SAXSVGDocumentFactory factory = new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName());
+        return new SvgDocument(factory.createSVGDocument(file.toURI().toString()));
+    }
+
+    /**
+     * @return size of the document in pixels, the same as Batik's transcoders use
+     */
+    public Dimension getDimension() {
+        Dimension dimension;
+        synchronized (document) {
+            Element root = document.getDocumentElement();
+            dimension = toDimension(root.getAttribute("width"), root.getAttribute("height"));
+        }
+        if (dimension != null) {
+            return dimension;
+        }
+
+        // lengths which are only known to Batik, so the document has to be built
+        Renderer renderer = idleRenderers.poll();
+        if (renderer == null) {
+            renderer = new Renderer(copyDocument());
+        }
+        try {
+            Dimension2D documentSize = renderer.context.getDocumentSize();
+            return new Dimension((int) Math.round(documentSize.getWidth()), (int) Math.round(documentSize.getHeight()));
+        } finally {
+            idleRenderers.offer(renderer);
+        }
+    }
+
+    /**
+     * Converts the width and height attributes of a svg root element to pixels
+     *
+     * @param width  width attribute, empty or null if missing
+     * @param height height attribute, empty or null if missing
+     * @return size in pixels or null if a length can not be converted without Batik
+     */
+    static Dimension toDimension(String width, String height) {
+        double widthPx = toPixels(width, DEFAULT_VIEWPORT.width);
+        double heightPx = toPixels(height, DEFAULT_VIEWPORT.height);
+        if (Double.isNaN(widthPx) || Double.isNaN(heightPx)) {
+            return null;
+        }
+        return new Dimension((int) Math.round(widthPx), (int) Math.round(heightPx));
+    }
+
+    private static double toPixels(String length, int viewport) {
+        String value = length == null ? "" : length.trim();
+        if (value.isEmpty()) {
+            // missing lengths are 100% of the viewport
+            return viewport;
+        }
+        Matcher matcher = LENGTH.matcher(value);
+        if (!matcher.matches()) {
+            return Double.NaN;
+        }
+        double number = Double.parseDouble(matcher.group(1));
+        String unit = matcher.group(2) != null ? matcher.group(2) : "px";
+        switch (unit) {
+            case "in":
+                return number * 96;
+            case "cm":
+                return number * 96 / 2.54;
+            case "mm":
+                return number * 96 / 25.4;
+            case "pt":
+                return number * 96 / 72;
+            case "pc":
+                return number * 16;
+            case "em":
+                // Batik's default font size
+                return number * 12;
+            case "ex":
+                return number * 6;
+            case "%":
+                return number * viewport / 100;
+            default:
+                return number;
+        }
+    }
+
+    /**
+     * Renders the whole document scaled to given size
+     *
+     * @param targetDimension size of the returned image
+     * @return newly rendered image of type {@link BufferedImage#TYPE_INT_ARGB}, owned by the caller
+     */
+    public BufferedImage render(Dimension targetDimension) {
+        Renderer renderer = idleRenderers.poll();
+        if (renderer == null) {
+            renderer = new Renderer(copyDocument());
+        }
+        try {
+            return renderer.render(targetDimension);
+        } finally {
+            idleRenderers.offer(renderer);
+        }
+    }
+
+    /**
+     * Frees all built trees; the document can still be rendered afterwards
+     */
+    public void flush() {
+        Renderer renderer;
+        while ((renderer = idleRenderers.poll()) != null) {
+            renderer.dispose();
+        }
+    }
+
+    private Document copyDocument() {
+        synchronized (document) {
+            return (Document) document.cloneNode(true);
+        }
+    }
+
+    private static final class Renderer {
+        private final BridgeContext context;
+        private final GraphicsNode root;
+
+        Renderer(Document document) {
+            UserAgent userAgent = new UserAgentAdapter() {
+                @Override
+                public Dimension2D getViewportSize() {
+                    return DEFAULT_VIEWPORT;
+                }
+            };
+            context = new BridgeContext(userAgent, new DocumentLoader(userAgent));
+            context.setDynamicState(BridgeContext.STATIC);
+            root = new GVTBuilder().build(context, document);
+        }
+
+        BufferedImage render(Dimension targetDimension) {
+            Dimension2D documentSize = context.getDocumentSize();
+            BufferedImage image = new BufferedImage(targetDimension.width, targetDimension.height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = image.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.scale(targetDimension.width / documentSize.getWidth(), targetDimension.height / documentSize.getHeight());
+                root.paint(graphics);
+            } finally {
+                graphics.dispose();
+            }
+            return image;
+        }
+
+        void dispose() {
+            context.dispose();
+        }
+    }
+}
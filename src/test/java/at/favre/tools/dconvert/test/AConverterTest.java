@@ -188,6 +188,13 @@ public abstract class AConverterTest {
 				.dstFolder(defaultDst).platform(Collections.singleton(getType())).build(), files);
 	}
 
+	@Test
+	public void testCascadeScaling() throws Exception {
+		List<File> files = copyToTestPath(defaultSrc, "png_example1_alpha_144.png", "jpg_example_1920.jpg");
+		test(new Arguments.Builder(defaultSrc, DEFAULT_SCALE).compression(EOutputCompressionMode.AS_JPG_AND_PNG, 0.5f).cascadeScaling(true).cascadeMaxRatio(1.6f)
+				.dstFolder(defaultDst).platform(Collections.singleton(getType())).build(), files);
+	}
+
 	@Test
 	public void testDryRun() throws Exception {
 		List<File> files = copyToTestPath(defaultSrc, "png_example2_alpha_144.png", "gif_example_640.gif", "jpg_example_1920.jpg");
@@ -195,6 +202,17 @@ public abstract class AConverterTest {
 				.dstFolder(defaultDst).platform(Collections.singleton(getType())).dryRun(true).build(), files);
 	}
 
+	@Test
+	public void testDryRunOnlyReadsHeader() throws Exception {
+		File file = copyToTestPath(defaultSrc, "png_example4_500.png").get(0);
+		byte[] truncated = Arrays.copyOf(Files.readAllBytes(file.toPath()), 512);
+		Files.write(file.toPath(), truncated);
+
+		Arguments.Builder builder = new Arguments.Builder(defaultSrc, DEFAULT_SCALE).dstFolder(defaultDst).platform(Collections.singleton(getType()));
+		assertNull(converter.convert(file, builder.dryRun(true).build()).exception);
+		assertNotNull(converter.convert(file, builder.dryRun(false).build()).exception);
+	}
+
 	protected void defaultTest(List<File> files) throws Exception {
 		test(new Arguments.Builder(defaultSrc, DEFAULT_SCALE).compression(EOutputCompressionMode.SAME_AS_INPUT_PREF_PNG, 0.5f)
 				.dstFolder(defaultDst).platform(Collections.singleton(getType())).build(), files);
@@ -0,0 +1,95 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.util.BandedImageReader;
+import at.favre.tools.dconvert.util.ImageUtil;
+import at.favre.tools.dconvert.util.LoadedImage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test of the band wise reader for huge images
+ */
+public class BandedImageReaderTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testSameResultAsFromFullyDecodedImage() throws Exception {
+		BufferedImage image = new BufferedImage(301, 203, BufferedImage.TYPE_INT_ARGB);
+		BufferedImage opaque = new BufferedImage(301, 203, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				image.setRGB(x, y, ((x * 7 + y) % 256) << 24 | (x % 256) << 16 | (y % 256) << 8 | ((x ^ y) & 0xff));
+				opaque.setRGB(x, y, image.getRGB(x, y));
+			}
+		}
+		for (File file : new File[]{write(image, "pattern.tif"), write(opaque, "opaque.tif"), write(opaque, "opaque.bmp")}) {
+			// the full image of the same reader, as the readers do not always agree
+			File decoded = write(ImageIO.read(file), file.getName() + ".png");
+			LoadedImage expected = new BandedImageReader().read(decoded, new Dimension(100, 67));
+			LoadedImage reduced = new BandedImageReader().read(file, new Dimension(100, 67));
+
+			assertEquals(new Dimension(301, 203), reduced.getSourceDimension());
+			for (int y = 0; y < 67; y++) {
+				for (int x = 0; x < 100; x++) {
+					assertEquals(file.getName(), expected.getImage().getRGB(x, y), reduced.getImage().getRGB(x, y));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testUniformColorIsKept() throws Exception {
+		BufferedImage image = new BufferedImage(120, 90, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				image.setRGB(x, y, 0x80FF2010);
+			}
+		}
+		File file = write(image, "uniform.png");
+
+		BufferedImage result = new BandedImageReader().read(file, new Dimension(37, 28)).getImage();
+		for (int y = 0; y < result.getHeight(); y++) {
+			for (int x = 0; x < result.getWidth(); x++) {
+				assertEquals(0x80FF2010, result.getRGB(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void testReadsTiffAndBmpInBands() throws Exception {
+		for (File file : AConverterTest.copyToTestPath(temporaryFolder.getRoot(), "tiff_example_256.tif", "bmp_example_256.bmp")) {
+			Dimension srcDimension = ImageUtil.getImageDimension(file);
+			Dimension target = new Dimension(srcDimension.width / 3, srcDimension.height / 3);
+			LoadedImage image = new BandedImageReader().read(file, target);
+			assertEquals(srcDimension, image.getSourceDimension());
+			assertEquals(target, new Dimension(image.getImage().getWidth(), image.getImage().getHeight()));
+		}
+	}
+
+	@Test
+	public void testBandedDecodingOnlyForHugeSeekableSources() throws Exception {
+		Dimension huge = new Dimension(20000, 20000);
+		Dimension target = new Dimension(1000, 1000);
+
+		assertEquals(new Dimension(2000, 2000), ImageUtil.getBandedDecodingDimension(new File("huge.tif"), huge, target));
+		assertEquals(new Dimension(2000, 2000), ImageUtil.getBandedDecodingDimension(new File("huge.psd"), huge, target));
+		assertNull(ImageUtil.getBandedDecodingDimension(new File("huge.jpg"), huge, target));
+		assertNull(ImageUtil.getBandedDecodingDimension(new File("small.tif"), new Dimension(4000, 4000), target));
+		assertNull(ImageUtil.getBandedDecodingDimension(new File("huge.tif"), huge, new Dimension(15000, 15000)));
+	}
+
+	private File write(BufferedImage image, String name) throws Exception {
+		File file = new File(temporaryFolder.getRoot(), name);
+		assertTrue(ImageIO.write(image, name.substring(name.lastIndexOf('.') + 1), file));
+		return file;
+	}
+}
@@ -228,6 +228,48 @@ public class CLIParserTest {
         check(defaultCmd + " -postProcessorWebp -" + CLIInterpreter.VERBOSE_ARG + " -skipUpscaling -antiAliasing", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).antiAliasing(true).postConvertWebp(true).verboseLog(true).skipUpscaling(true).build());
     }
 
+    @Test
+    public void testCascadeScaling() throws Exception {
+        check(defaultCmd + " -" + CLIInterpreter.CASCADE_SCALING_ARG, new Arguments.Builder(defaultSrc, DEFAULT_SCALE).cascadeScaling(true).build());
+        check(defaultCmd + " -" + CLIInterpreter.CASCADE_SCALING_ARG + " -" + CLIInterpreter.CASCADE_MAX_RATIO_ARG + " 1.5", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).cascadeScaling(true).cascadeMaxRatio(1.5f).build());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testCascadeMaxRatioShouldFail() throws Exception {
+        check(defaultCmd + " -" + CLIInterpreter.CASCADE_MAX_RATIO_ARG + " 1", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).cascadeMaxRatio(1f).build());
+    }
+
+    @Test
+    public void testMemoryBudget() throws Exception {
+        check(defaultCmd + " -" + CLIInterpreter.MEMORY_BUDGET_ARG + " 512", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).memoryBudget(512).build());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testNegativeMemoryBudgetShouldFail() throws Exception {
+        check(defaultCmd + " -" + CLIInterpreter.MEMORY_BUDGET_ARG + " -1", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).memoryBudget(-1).build());
+    }
+
+    @Test
+    public void testPostProcessorThreads() throws Exception {
+        check(defaultCmd + " -" + CLIInterpreter.POST_PROCESSOR_THREADS_ARG + " 16", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).postProcessorThreadCount(16).build());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testNegativePostProcessorThreadsShouldFail() throws Exception {
+        check(defaultCmd + " -" + CLIInterpreter.POST_PROCESSOR_THREADS_ARG + " -1", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).postProcessorThreadCount(-1).build());
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        check(defaultCmd + " -" + CLIInterpreter.PREFETCH_ARG + " 0", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).prefetch(0).build());
+        check(defaultCmd + " -" + CLIInterpreter.PREFETCH_ARG + " 6", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).prefetch(6).build());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testNegativePrefetchShouldFail() throws Exception {
+        check(defaultCmd + " -" + CLIInterpreter.PREFETCH_ARG + " -1", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).prefetch(-1).build());
+    }
+
     @Test
     public void testDryRun() throws Exception {
         check(defaultCmd + " -dryRun", new Arguments.Builder(defaultSrc, DEFAULT_SCALE).dryRun(true).build());
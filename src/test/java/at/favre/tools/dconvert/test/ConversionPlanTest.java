@@ -0,0 +1,101 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.converters.ConversionPlan;
+import at.favre.tools.dconvert.converters.Result;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test of merging the density tasks of a conversion
+ */
+public class ConversionPlanTest {
+
+	@Test
+	public void testLastTaskReturnsMergedResultInTaskOrder() throws Exception {
+		AtomicInteger finishCount = new AtomicInteger();
+		List<Callable<Result>> tasks = Arrays.asList(
+				() -> new Result("a\n", Collections.singletonList(new File("a.png"))),
+				() -> new Result("b\n", Collections.singletonList(new File("b.png"))),
+				() -> new Result("c\n", Collections.singletonList(new File("c.png"))));
+		ConversionPlan plan = new ConversionPlan("plan\n", tasks, finishCount::incrementAndGet);
+
+		assertEquals(3, plan.getTaskCount());
+		assertNull(plan.runTask(2));
+		assertNull(plan.runTask(0));
+		assertNull(plan.getResult());
+		assertEquals(0, finishCount.get());
+
+		Result result = plan.runTask(1);
+		assertNotNull(result);
+		assertSame(result, plan.getResult());
+		assertEquals(1, finishCount.get());
+		assertNull(result.exception);
+		assertEquals("plan\na\nb\nc\n", result.log);
+		assertEquals(Arrays.asList(new File("a.png"), new File("b.png"), new File("c.png")), result.processedFiles);
+	}
+
+	@Test
+	public void testFailedTaskFailsWholeResult() throws Exception {
+		AtomicInteger finishCount = new AtomicInteger();
+		IllegalStateException exception = new IllegalStateException("test");
+		List<Callable<Result>> tasks = Arrays.asList(
+				() -> new Result("a\n", Collections.singletonList(new File("a.png"))),
+				() -> {
+					throw exception;
+				});
+		Result result = new ConversionPlan("plan\n", tasks, finishCount::incrementAndGet).runAll();
+
+		assertEquals(1, finishCount.get());
+		assertSame(exception, result.exception);
+		assertTrue(result.processedFiles.isEmpty());
+	}
+
+	@Test
+	public void testErrorsAreReportedAndCounted() throws Exception {
+		AtomicInteger finishCount = new AtomicInteger();
+		List<Callable<Result>> tasks = Arrays.asList(
+				() -> {
+					throw new OutOfMemoryError("test");
+				},
+				() -> new Result("b\n", Collections.singletonList(new File("b.png"))));
+		ConversionPlan plan = new ConversionPlan("plan\n", tasks, finishCount::incrementAndGet);
+
+		assertNull(plan.runTask(0));
+		Result result = plan.runTask(1, taskResult -> {
+			throw new IllegalStateException("listener");
+		});
+
+		assertEquals(1, finishCount.get());
+		assertNotNull(result);
+		assertTrue(result.exception.getCause() instanceof OutOfMemoryError);
+	}
+
+	@Test
+	public void testFailingFinishIsReported() throws Exception {
+		IllegalStateException exception = new IllegalStateException("test");
+		List<Callable<Result>> tasks = Collections.singletonList(() -> new Result("a\n", Collections.singletonList(new File("a.png"))));
+		Result result = new ConversionPlan("plan\n", tasks, () -> {
+			throw exception;
+		}).runAll();
+
+		assertSame(exception, result.exception);
+	}
+
+	@Test
+	public void testPlanWithoutTasksIsFinished() throws Exception {
+		AtomicInteger finishCount = new AtomicInteger();
+		ConversionPlan plan = new ConversionPlan("plan\n", Collections.emptyList(), finishCount::incrementAndGet);
+
+		assertEquals(0, plan.getTaskCount());
+		assertEquals(1, finishCount.get());
+		assertEquals("plan\n", plan.getResult().log);
+	}
+}
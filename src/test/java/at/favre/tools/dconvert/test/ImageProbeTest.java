@@ -0,0 +1,91 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.util.ImageProbe;
+import at.favre.tools.dconvert.util.SvgDocument;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test of the header only image probe
+ */
+public class ImageProbeTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	private File src;
+
+	@Before
+	public void setUp() throws Exception {
+		src = temporaryFolder.newFolder("probe-test");
+	}
+
+	@Test
+	public void testReadsHeaderInfo() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png", "jpg_example2_512.jpg");
+
+		for (File file : files) {
+			BufferedImage image = ImageIO.read(file);
+			ImageProbe.ImageInfo info = ImageProbe.probe(file);
+			assertEquals(new Dimension(image.getWidth(), image.getHeight()), info.getDimension());
+			assertEquals(image.getColorModel().hasAlpha(), info.hasAlpha());
+			assertTrue(info.getBitDepth() > 0);
+		}
+	}
+
+	@Test
+	public void testSvgDimensionSameAsFullyParsed() throws Exception {
+		String[][] sizes = {{"48", "32.6"}, {"10mm", "1in"}, {"50%", "200px"}, {"12pt", "3pc"}, {"2em", "3ex"}, {null, null}, {"2e1", ".5cm"}};
+		for (int i = 0; i < sizes.length; i++) {
+			File file = new File(src, "probe" + i + ".svg");
+			Files.write(file.toPath(), ("<?xml version=\"1.0\"?>\n<svg xmlns=\"http://www.w3.org/2000/svg\""
+					+ (sizes[i][0] != null ? " width=\"" + sizes[i][0] + "\" height=\"" + sizes[i][1] + "\"" : "")
+					+ " viewBox=\"0 0 10 10\"><rect width=\"5\" height=\"5\"/></svg>").getBytes(StandardCharsets.UTF_8));
+
+			Dimension expected;
+			try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+				ImageReader reader = ImageIO.getImageReaders(stream).next();
+				reader.setInput(stream);
+				expected = new Dimension(reader.getWidth(0), reader.getHeight(0));
+				reader.dispose();
+			}
+			assertEquals(file.getName(), expected, ImageProbe.probe(file).getDimension());
+			assertEquals(file.getName(), expected, SvgDocument.parse(file).getDimension());
+		}
+	}
+
+	@Test
+	public void testCachedUntilFileChanges() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "png_example3_alpha_128.png", "jpg_example2_512.jpg");
+		File file = files.get(0);
+
+		ImageProbe.ImageInfo first = ImageProbe.probe(file);
+		assertSame(first, ImageProbe.probe(file));
+
+		Files.copy(files.get(1).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		ImageProbe.ImageInfo changed = ImageProbe.probe(file);
+		assertNotSame(first, changed);
+		assertEquals(ImageIO.read(files.get(1)).getWidth(), changed.getDimension().width);
+	}
+
+	@Test(expected = IOException.class)
+	public void testNoImageThrows() throws Exception {
+		File file = new File(src, "no_image.png");
+		Files.write(file.toPath(), new byte[]{1, 2, 3, 4});
+		ImageProbe.probe(file);
+	}
+}
@@ -0,0 +1,135 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.util.ImageUtil;
+import at.favre.tools.dconvert.util.LoadedImage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.spi.ImageReaderSpi;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test of image loading in {@link ImageUtil}
+ */
+public class ImageUtilTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testLoadedImagesHaveCanonicalRaster() throws Exception {
+		for (File file : AConverterTest.copyToTestPath(temporaryFolder.getRoot(), "png_example1_alpha_144.png", "jpg_example2_512.jpg",
+				"gif_example_640.gif", "bmp_example_256.bmp", "tiff_example_256.tif")) {
+			BufferedImage original = ImageIO.read(file);
+			BufferedImage loaded = ImageUtil.loadImage(file).getImage();
+
+			assertEquals(original.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB, loaded.getType());
+			assertEquals(original.getWidth(), loaded.getWidth());
+			assertEquals(original.getHeight(), loaded.getHeight());
+			for (int y = 0; y < loaded.getHeight(); y += 7) {
+				for (int x = 0; x < loaded.getWidth(); x += 7) {
+					assertEquals(file.getName(), original.getRGB(x, y), loaded.getRGB(x, y));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSubsampledImagesKeepEveryNthPixel() throws Exception {
+		for (File file : AConverterTest.copyToTestPath(temporaryFolder.getRoot(), "jpg_example2_512.jpg", "bmp_example_256.bmp", "tiff_example_256.tif")) {
+			BufferedImage original = ImageIO.read(file);
+			BufferedImage loaded = ImageUtil.loadImage(file, 3).getImage();
+
+			assertEquals(ImageUtil.getSubsampledDimension(new Dimension(original.getWidth(), original.getHeight()), 3), new Dimension(loaded.getWidth(), loaded.getHeight()));
+			for (int y = 0; y < loaded.getHeight(); y++) {
+				for (int x = 0; x < loaded.getWidth(); x++) {
+					assertEquals(file.getName(), original.getRGB(x * 3, y * 3), loaded.getRGB(x, y));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSubsampledWithReaderWithoutSourceSubsampling() throws Exception {
+		BufferedImage argb = new BufferedImage(301, 203, BufferedImage.TYPE_4BYTE_ABGR);
+		Graphics2D graphics = argb.createGraphics();
+		graphics.setPaint(new GradientPaint(0, 0, new Color(255, 0, 0, 40), 301, 203, Color.BLUE));
+		graphics.fillRect(0, 0, 301, 203);
+		graphics.dispose();
+		File argbTiff = new File(temporaryFolder.getRoot(), "argb.tif");
+		assertTrue(ImageIO.write(argb, "tiff", argbTiff));
+		BufferedImage bilevel = new BufferedImage(301, 203, BufferedImage.TYPE_BYTE_BINARY);
+		bilevel.getGraphics().drawImage(argb, 0, 0, null);
+		File bilevelTiff = new File(temporaryFolder.getRoot(), "bilevel.tif");
+		assertTrue(ImageIO.write(bilevel, "tiff", bilevelTiff));
+
+		// like on java 8, where TwelveMonkeys' is the only tiff reader
+		IIORegistry registry = IIORegistry.getDefaultInstance();
+		List<ImageReaderSpi> otherReaders = new ArrayList<>();
+		Iterator<ImageReaderSpi> readers = registry.getServiceProviders(ImageReaderSpi.class, true);
+		while (readers.hasNext()) {
+			ImageReaderSpi reader = readers.next();
+			if (Arrays.asList(reader.getFormatNames()).contains("tiff") && !reader.getClass().getName().startsWith("com.twelvemonkeys")) {
+				otherReaders.add(reader);
+			}
+		}
+		otherReaders.forEach(registry::deregisterServiceProvider);
+		try {
+			for (File file : Arrays.asList(argbTiff, bilevelTiff, AConverterTest.copyToTestPath(temporaryFolder.getRoot(), "tiff_example_256.tif").get(0))) {
+				BufferedImage original = ImageIO.read(file);
+				for (int subsampling : new int[]{2, 3, 7}) {
+					BufferedImage loaded = ImageUtil.loadImage(file, subsampling).getImage();
+					assertEquals(ImageUtil.getSubsampledDimension(new Dimension(original.getWidth(), original.getHeight()), subsampling), new Dimension(loaded.getWidth(), loaded.getHeight()));
+					for (int y = 0; y < loaded.getHeight(); y++) {
+						for (int x = 0; x < loaded.getWidth(); x++) {
+							assertEquals(file.getName(), original.getRGB(x * subsampling, y * subsampling), loaded.getRGB(x, y));
+						}
+					}
+				}
+			}
+		} finally {
+			otherReaders.forEach(registry::registerServiceProvider);
+		}
+	}
+
+	@Test
+	public void testCanonicalRasterIsKept() throws Exception {
+		BufferedImage argb = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+		BufferedImage rgb = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+		assertSame(argb, ImageUtil.toCanonicalRaster(argb));
+		assertSame(rgb, ImageUtil.toCanonicalRaster(rgb));
+		assertNull(ImageUtil.toCanonicalRaster(null));
+	}
+
+	@Test
+	public void testSvgIsRenderedAtTargetSize() throws Exception {
+		File svg = AConverterTest.copyToTestPath(temporaryFolder.getRoot(), "svg_example_512.svg").get(0);
+		LoadedImage loaded = ImageUtil.loadImage(svg);
+
+		assertTrue(loaded.isVector());
+		assertNull(loaded.getImage());
+		assertEquals(ImageUtil.getImageDimension(svg), loaded.getSourceDimension());
+
+		for (Dimension dimension : new Dimension[]{new Dimension(48, 48), new Dimension(2048, 2048)}) {
+			BufferedImage rendered = loaded.render(dimension);
+			assertEquals(dimension, new Dimension(rendered.getWidth(), rendered.getHeight()));
+			assertEquals(BufferedImage.TYPE_INT_ARGB, rendered.getType());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testBitmapCanNotBeRendered() throws Exception {
+		File png = AConverterTest.copyToTestPath(temporaryFolder.getRoot(), "png_example1_alpha_144.png").get(0);
+		ImageUtil.loadImage(png).render(new Dimension(10, 10));
+	}
+}
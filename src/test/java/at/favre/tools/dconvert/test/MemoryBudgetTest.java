@@ -0,0 +1,100 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.util.MemoryBudget;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test of the memory budget used for admitting conversion jobs
+ */
+public class MemoryBudgetTest {
+
+	@Test
+	public void testDefaultIsShareOfMaxHeap() throws Exception {
+		MemoryBudget budget = new MemoryBudget(0);
+		assertEquals((long) (Runtime.getRuntime().maxMemory() * MemoryBudget.DEFAULT_HEAP_FRACTION), budget.getMaxBytes());
+		assertEquals(12 * 1024L * 1024L, new MemoryBudget(12).getMaxBytes());
+	}
+
+	@Test
+	public void testSmallJobsDoNotBlock() throws Exception {
+		MemoryBudget budget = new MemoryBudget(1);
+		for (int i = 0; i < 10; i++) {
+			budget.acquire(1024);
+		}
+		assertEquals(10 * 1024, budget.getUsedBytes());
+		for (int i = 0; i < 10; i++) {
+			budget.release(1024);
+		}
+		assertEquals(0, budget.getUsedBytes());
+	}
+
+	@Test
+	public void testJobBiggerThanBudgetRunsAlone() throws Exception {
+		MemoryBudget budget = new MemoryBudget(1);
+		budget.acquire(1024);
+
+		CountDownLatch admitted = new CountDownLatch(1);
+		Thread thread = new Thread(() -> {
+			try {
+				budget.acquire(10 * 1024 * 1024);
+				admitted.countDown();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		});
+		thread.start();
+
+		assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+		budget.release(1024);
+		assertTrue(admitted.await(5, TimeUnit.SECONDS));
+		assertEquals(10 * 1024 * 1024, budget.getUsedBytes());
+	}
+
+	@Test
+	public void testTryAcquireDoesNotWait() throws Exception {
+		MemoryBudget budget = new MemoryBudget(1);
+		assertTrue(budget.tryAcquire(10 * 1024 * 1024));
+		assertFalse(budget.tryAcquire(1));
+		budget.release(10 * 1024 * 1024);
+		assertTrue(budget.tryAcquire(1));
+		assertEquals(1, budget.getUsedBytes());
+	}
+
+	@Test
+	public void testWaitingWorkerIsCompensated() throws Exception {
+		MemoryBudget budget = new MemoryBudget(1);
+		budget.acquire(1024 * 1024);
+		ForkJoinPool pool = new ForkJoinPool(1);
+		try {
+			CountDownLatch waiting = new CountDownLatch(1);
+			pool.execute(() -> {
+				waiting.countDown();
+				try {
+					budget.acquire(1024);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			});
+			assertTrue(waiting.await(5, TimeUnit.SECONDS));
+
+			// the only worker waits for the budget, so this only runs on a spare thread
+			assertEquals("done", pool.submit(() -> "done").get(5, TimeUnit.SECONDS));
+			budget.release(1024 * 1024);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testEstimateFootprint() throws Exception {
+		assertEquals(2 * 100 * 100 * 4, MemoryBudget.estimateFootprint(new Dimension(100, 100), null));
+		assertEquals((2 * 100 * 100 + 3 * 50 * 50) * 4, MemoryBudget.estimateFootprint(new Dimension(100, 100), new Dimension(50, 50)));
+	}
+}
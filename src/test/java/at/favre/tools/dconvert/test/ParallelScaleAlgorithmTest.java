@@ -0,0 +1,88 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.converters.scaling.BandScaleAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.ParallelScaleAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.ResambleAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.SeparableResampleAlgorithm;
+import at.favre.tools.dconvert.util.ImageUtil;
+import com.mortennobel.imagescaling.ResampleFilters;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test of the band parallel scaling
+ */
+public class ParallelScaleAlgorithmTest {
+	private static final BandScaleAlgorithm[] ALGORITHMS = new BandScaleAlgorithm[]{
+			new SeparableResampleAlgorithm(new ResambleAlgorithm.LanczosFilter(3)),
+			new SeparableResampleAlgorithm(ResampleFilters.getMitchellFilter())};
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	private BufferedImage src;
+
+	@Before
+	public void setUp() throws Exception {
+		src = ImageUtil.loadImage(AConverterTest.copyToTestPath(temporaryFolder.getRoot(), "jpg_example_1920.jpg").get(0)).getImage();
+	}
+
+	@Test
+	public void testBandsAreEqualToSerialScale() throws Exception {
+		for (BandScaleAlgorithm algorithm : ALGORITHMS) {
+			for (int parallelism : new int[]{2, 7}) {
+				assertEqualsSerial(algorithm, parallelism, src, 1500, 937);
+				assertEqualsSerial(algorithm, parallelism, src, 701, 433);
+				assertEqualsSerial(algorithm, parallelism, src.getSubimage(0, 0, 640, 400), 1601, 1001);
+			}
+		}
+	}
+
+	@Test
+	public void testBandsOfOtherImageTypes() throws Exception {
+		BufferedImage converted = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_4BYTE_ABGR);
+		converted.getGraphics().drawImage(src, 0, 0, null);
+		assertEqualsSerial(ALGORITHMS[0], 4, converted, 999, 623);
+		assertEqualsSerial(ALGORITHMS[0], 4, src.getSubimage(11, 13, 1201, 1001), 1000, 833);
+	}
+
+	@Test
+	public void testInsideForkJoinPool() throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			BufferedImage parallel = pool.submit(() -> new ParallelScaleAlgorithm(ALGORITHMS[0]).scale(src, 1200, 750)).get();
+			assertImageEquals(ALGORITHMS[0].scale(src, 1200, 750), parallel);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testSmallImagesAreNotSplit() throws Exception {
+		BufferedImage small = src.getSubimage(0, 0, 100, 100);
+		assertEqualsSerial(ALGORITHMS[0], 16, small, 20, 20);
+		assertEqualsSerial(ALGORITHMS[0], 1000, src, 2000, 3);
+	}
+
+	private static void assertEqualsSerial(BandScaleAlgorithm algorithm, int parallelism, BufferedImage image, int width, int height) {
+		assertImageEquals(algorithm.scale(image, width, height), new ParallelScaleAlgorithm(algorithm, parallelism).scale(image, width, height));
+	}
+
+	private static void assertImageEquals(BufferedImage expected, BufferedImage actual) {
+		assertEquals(expected.getType(), actual.getType());
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		int width = expected.getWidth();
+		int[] expectedPixels = expected.getRGB(0, 0, width, expected.getHeight(), null, 0, width);
+		int[] actualPixels = actual.getRGB(0, 0, width, expected.getHeight(), null, 0, width);
+		for (int i = 0; i < expectedPixels.length; i++) {
+			assertEquals("at " + i % width + "," + i / width, expectedPixels[i], actualPixels[i]);
+		}
+	}
+}
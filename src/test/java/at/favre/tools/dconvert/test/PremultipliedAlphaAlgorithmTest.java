@@ -0,0 +1,77 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.converters.scaling.NaiveGraphics2dAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.PremultipliedAlphaAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.ResambleAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.ScaleAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.SeparableResampleAlgorithm;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test of scaling premultiplied colors with any algorithm
+ */
+public class PremultipliedAlphaAlgorithmTest {
+
+	@Test
+	public void testTransparentColorDoesNotBleed() throws Exception {
+		BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				image.setRGB(x, y, x < 8 ? 0xFFFF0000 : 0x0000FF00);
+			}
+		}
+
+		ScaleAlgorithm[] algorithms = {new ResambleAlgorithm(new ResambleAlgorithm.LanczosFilter(3)),
+				new NaiveGraphics2dAlgorithm(RenderingHints.VALUE_INTERPOLATION_BILINEAR)};
+		for (ScaleAlgorithm algorithm : algorithms) {
+			for (int size : new int[]{5, 37}) {
+				BufferedImage result = new PremultipliedAlphaAlgorithm(algorithm).scale(image, size, size);
+				assertEquals(BufferedImage.TYPE_INT_ARGB, result.getType());
+				for (int x = 0; x < size; x++) {
+					int pixel = result.getRGB(x, size / 2);
+					if (pixel >>> 24 != 0) {
+						assertEquals(algorithm + " " + x, 0xFF0000, pixel & 0xFFFFFF);
+					} else {
+						assertEquals(0, pixel);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSameAsPremultiplyingResampler() throws Exception {
+		BufferedImage image = new BufferedImage(97, 61, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				image.setRGB(x, y, (128 + x) << 24 | (x * 5 % 256) << 16 | (y * 3 % 256) << 8 | ((x ^ y) & 0xff));
+			}
+		}
+
+		BufferedImage expected = new SeparableResampleAlgorithm(new ResambleAlgorithm.LanczosFilter(3)).scale(image, 40, 25);
+		BufferedImage result = new PremultipliedAlphaAlgorithm(new SeparableResampleAlgorithm(new ResambleAlgorithm.LanczosFilter(3),
+				SeparableResampleAlgorithm.Precision.FLOAT, false)).scale(image, 40, 25);
+		for (int y = 0; y < 25; y++) {
+			for (int x = 0; x < 40; x++) {
+				for (int shift = 0; shift < 32; shift += 8) {
+					assertEquals(x + "," + y, (expected.getRGB(x, y) >> shift) & 0xFF, (result.getRGB(x, y) >> shift) & 0xFF, 2);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testOpaqueImageIsNotConverted() throws Exception {
+		BufferedImage image = new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB);
+		ScaleAlgorithm algorithm = (imageToScale, dWidth, dHeight) -> {
+			assertSame(image, imageToScale);
+			return new BufferedImage(dWidth, dHeight, BufferedImage.TYPE_INT_RGB);
+		};
+		assertEquals(BufferedImage.TYPE_INT_RGB, new PremultipliedAlphaAlgorithm(algorithm).scale(image, 10, 5).getType());
+	}
+}
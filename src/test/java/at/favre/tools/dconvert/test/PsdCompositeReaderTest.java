@@ -0,0 +1,295 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.util.BandedImageReader;
+import at.favre.tools.dconvert.util.ImageProbe;
+import at.favre.tools.dconvert.util.ImageUtil;
+import at.favre.tools.dconvert.util.LoadedImage;
+import at.favre.tools.dconvert.util.PsdCompositeReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test of the psd composite reader
+ */
+public class PsdCompositeReaderTest {
+	private static final int WIDTH = 7;
+	private static final int HEIGHT = 5;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testRawRgb() throws Exception {
+		File psd = writePsd(3, 3, 8, false);
+		BufferedImage image = PsdCompositeReader.read(psd, 1).getImage();
+
+		assertEquals(BufferedImage.TYPE_INT_RGB, image.getType());
+		assertPixels(image, 1, (x, y) -> 0xFF000000 | sample(0, x, y) << 16 | sample(1, x, y) << 8 | sample(2, x, y));
+	}
+
+	@Test
+	public void testRleRgbWithAlphaAndExtraChannel() throws Exception {
+		File psd = writePsd(3, 5, 8, true, mergedTransparency());
+		BufferedImage image = PsdCompositeReader.read(psd, 1).getImage();
+
+		assertEquals(BufferedImage.TYPE_INT_ARGB, image.getType());
+		assertPixels(image, 1, (x, y) -> {
+			int alpha = sample(3, x, y);
+			if (alpha == 0) {
+				return 0;
+			}
+			return alpha << 24 | decompose(sample(0, x, y), alpha) << 16 | decompose(sample(1, x, y), alpha) << 8 | decompose(sample(2, x, y), alpha);
+		});
+	}
+
+	@Test
+	public void testTransparentGrayAnd16BitAreUnmatted() throws Exception {
+		for (int depth : new int[]{8, 16}) {
+			BufferedImage gray = PsdCompositeReader.read(writePsd(1, 2, depth, true, mergedTransparency()), 1).getImage();
+			assertEquals(BufferedImage.TYPE_INT_ARGB, gray.getType());
+			assertPixels(gray, 1, (x, y) -> {
+				int alpha = sample(1, x, y);
+				int color = decompose(sample(0, x, y), alpha);
+				return alpha << 24 | color << 16 | color << 8 | color;
+			});
+		}
+
+		BufferedImage rgb = PsdCompositeReader.read(writePsd(3, 4, 16, false, mergedTransparency()), 1).getImage();
+		assertPixels(rgb, 1, (x, y) -> {
+			int alpha = sample(3, x, y);
+			if (alpha == 0) {
+				return 0;
+			}
+			return alpha << 24 | decompose(sample(0, x, y), alpha) << 16 | decompose(sample(1, x, y), alpha) << 8 | decompose(sample(2, x, y), alpha);
+		});
+	}
+
+	@Test
+	public void testSavedAlphaChannelIsNotTransparency() throws Exception {
+		File psd = writePsd(3, 4, 8, true);
+		BufferedImage image = PsdCompositeReader.read(psd, 1).getImage();
+
+		assertEquals(BufferedImage.TYPE_INT_RGB, image.getType());
+		assertPixels(image, 1, (x, y) -> 0xFF000000 | sample(0, x, y) << 16 | sample(1, x, y) << 8 | sample(2, x, y));
+		assertFalse(PsdCompositeReader.readInfo(psd).hasAlpha());
+	}
+
+	@Test
+	public void testTransparencyOfAdditionalLayerInfo() throws Exception {
+		assertTrue(PsdCompositeReader.readInfo(writePsd(3, 4, 16, false, additionalLayerInfo("Mt16", new byte[0]))).hasAlpha());
+		assertTrue(PsdCompositeReader.readInfo(writePsd(3, 4, 16, false, additionalLayerInfo("Lr16", new byte[]{(byte) 0xFF, (byte) 0xFE, 0, 0}))).hasAlpha());
+		assertFalse(PsdCompositeReader.readInfo(writePsd(3, 4, 16, false, additionalLayerInfo("Lr16", new byte[]{0, 2, 0, 0}))).hasAlpha());
+
+		File psd = writePsd(3, 4, 8, false, additionalLayerInfo("Mtrn", new byte[0]));
+		assertEquals(BufferedImage.TYPE_INT_ARGB, PsdCompositeReader.read(psd, 1).getImage().getType());
+	}
+
+	@Test
+	public void testRleGray16Bit() throws Exception {
+		File psd = writePsd(1, 1, 16, true);
+		BufferedImage image = PsdCompositeReader.read(psd, 1).getImage();
+
+		assertEquals(BufferedImage.TYPE_INT_RGB, image.getType());
+		assertPixels(image, 1, (x, y) -> 0xFF000000 | sample(0, x, y) << 16 | sample(0, x, y) << 8 | sample(0, x, y));
+	}
+
+	@Test
+	public void testSubsampling() throws Exception {
+		File psd = writePsd(3, 3, 8, true);
+		LoadedImage loaded = PsdCompositeReader.read(psd, 2);
+
+		assertEquals(new Dimension(WIDTH, HEIGHT), loaded.getSourceDimension());
+		assertEquals(ImageUtil.getSubsampledDimension(new Dimension(WIDTH, HEIGHT), 2), new Dimension(loaded.getImage().getWidth(), loaded.getImage().getHeight()));
+		assertPixels(loaded.getImage(), 2, (x, y) -> 0xFF000000 | sample(0, x, y) << 16 | sample(1, x, y) << 8 | sample(2, x, y));
+	}
+
+	@Test
+	public void testReadRowByRowWhenReducing() throws Exception {
+		File[] psds = {writePsd(3, 5, 8, true, mergedTransparency()), writePsd(1, 2, 16, false, mergedTransparency()), writePsd(3, 3, 8, false)};
+		for (File psd : psds) {
+			File png = temporaryFolder.newFile(psd.getName() + ".png");
+			assertTrue(ImageIO.write(PsdCompositeReader.read(psd, 1).getImage(), "png", png));
+
+			LoadedImage expected = new BandedImageReader().read(png, new Dimension(3, 2));
+			LoadedImage reduced = new BandedImageReader().read(psd, new Dimension(3, 2));
+			assertEquals(new Dimension(WIDTH, HEIGHT), reduced.getSourceDimension());
+			assertEquals(expected.getImage().getType(), reduced.getImage().getType());
+			assertPixels(reduced.getImage(), 1, (x, y) -> expected.getImage().getRGB(x, y));
+		}
+	}
+
+	@Test
+	public void testUnsupportedColorModeIsNotRead() throws Exception {
+		File cmyk = writePsd(4, 4, 8, false);
+		assertNull(PsdCompositeReader.read(cmyk, 1));
+	}
+
+	@Test
+	public void testLayeredPsdWithSRGBProfile() throws Exception {
+		File psd = AConverterTest.copyToTestPath(temporaryFolder.getRoot(), "psd_example_827.psd").get(0);
+		LoadedImage loaded = ImageUtil.loadImage(psd);
+
+		assertEquals(new Dimension(827, 897), loaded.getSourceDimension());
+		assertEquals(BufferedImage.TYPE_INT_RGB, loaded.getImage().getType());
+	}
+
+	@Test
+	public void testInfoIsReadFromHeader() throws Exception {
+		ImageProbe.ImageInfo info = PsdCompositeReader.readInfo(writePsd(3, 5, 16, false, mergedTransparency()));
+		assertEquals(new Dimension(WIDTH, HEIGHT), info.getDimension());
+		assertTrue(info.hasAlpha());
+		assertEquals(4, info.getColorComponents());
+		assertEquals(64, info.getBitDepth());
+
+		info = PsdCompositeReader.readInfo(writePsd(1, 1, 8, true));
+		assertFalse(info.hasAlpha());
+		assertEquals(1, info.getColorComponents());
+	}
+
+	private interface ExpectedPixel {
+		int get(int x, int y);
+	}
+
+	private static void assertPixels(BufferedImage image, int subsampling, ExpectedPixel expected) {
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				assertEquals("pixel " + x + "," + y, Integer.toHexString(expected.get(x * subsampling, y * subsampling)), Integer.toHexString(image.getRGB(x, y)));
+			}
+		}
+	}
+
+	/**
+	 * Test pattern with fully transparent, opaque and half transparent pixels in the alpha channel (3)
+	 */
+	private static int sample(int channel, int x, int y) {
+		if (channel == 3) {
+			return x == 0 ? 0 : x == 1 ? 255 : (x * 37 + y * 11) & 0xFF;
+		}
+		return (x * 40 + y * 20 + channel * 60) & 0xFF;
+	}
+
+	private static int decompose(int color, int alpha) {
+		double a = alpha / 255.0;
+		return Math.max(0, Math.min(255, (int) ((color / 255.0 - (1 - a)) / a * 255)));
+	}
+
+	/**
+	 * Writes a psd with an empty layer section; samples of 16 bit images repeat the 8 bit value in both bytes
+	 */
+	private File writePsd(int colorMode, int channels, int depth, boolean rle) throws IOException {
+		return writePsd(colorMode, channels, depth, rle, new byte[0]);
+	}
+
+	/**
+	 * @param layerAndMaskInfo content of the layer and mask section
+	 */
+	private File writePsd(int colorMode, int channels, int depth, boolean rle, byte[] layerAndMaskInfo) throws IOException {
+		File file = File.createTempFile("test_" + colorMode + "_" + channels + "_" + depth + (rle ? "_rle" : ""), ".psd", temporaryFolder.getRoot());
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+			out.writeInt(0x38425053);
+			out.writeShort(1);
+			out.write(new byte[6]);
+			out.writeShort(channels);
+			out.writeInt(HEIGHT);
+			out.writeInt(WIDTH);
+			out.writeShort(depth);
+			out.writeShort(colorMode);
+			out.writeInt(0); // color mode data
+
+			// a single resource which is not an icc profile, with an odd sized name and data
+			out.writeInt(4 + 2 + 2 + 4 + 4);
+			out.writeInt(0x3842494D);
+			out.writeShort(1005);
+			out.writeByte(1);
+			out.writeByte('a');
+			out.writeInt(3);
+			out.write(new byte[]{1, 2, 3, 0});
+
+			out.writeInt(layerAndMaskInfo.length);
+			out.write(layerAndMaskInfo);
+			out.writeShort(rle ? 1 : 0);
+
+			byte[][] rows = new byte[channels * HEIGHT][];
+			for (int channel = 0; channel < channels; channel++) {
+				for (int y = 0; y < HEIGHT; y++) {
+					byte[] row = new byte[WIDTH * depth / 8];
+					for (int x = 0; x < WIDTH; x++) {
+						for (int i = 0; i < depth / 8; i++) {
+							row[x * depth / 8 + i] = (byte) sample(channel, x, y);
+						}
+					}
+					rows[channel * HEIGHT + y] = rle ? packBits(row) : row;
+				}
+			}
+			if (rle) {
+				for (byte[] row : rows) {
+					out.writeShort(row.length);
+				}
+			}
+			for (byte[] row : rows) {
+				out.write(row);
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Layer info of a composite with transparency, without the layer records which are skipped anyway
+	 */
+	private static byte[] mergedTransparency() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(2);
+		out.writeShort(-1);
+		out.writeInt(0); // global layer mask
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Empty layer info followed by additional layer information with given key
+	 */
+	private static byte[] additionalLayerInfo(String key, byte[] data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0);
+		out.writeInt(0);
+		out.writeInt(0x3842494D);
+		out.writeBytes(key);
+		out.writeInt(data.length);
+		out.write(data);
+		return bytes.toByteArray();
+	}
+
+	private static byte[] packBits(byte[] row) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int i = 0;
+		while (i < row.length) {
+			int run = 1;
+			while (i + run < row.length && run < 128 && row[i + run] == row[i]) {
+				run++;
+			}
+			if (run > 1) {
+				out.write(1 - run);
+				out.write(row[i]);
+				i += run;
+			} else {
+				out.write(0);
+				out.write(row[i]);
+				i++;
+			}
+		}
+		return out.toByteArray();
+	}
+}
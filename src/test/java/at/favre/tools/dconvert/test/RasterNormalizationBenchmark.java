@@ -0,0 +1,79 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.arg.EScalingAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.ScaleAlgorithm;
+import at.favre.tools.dconvert.util.ImageUtil;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Compares scaling images as returned by the readers with scaling them after {@link ImageUtil#toCanonicalRaster(BufferedImage)}
+ * for every test input format. Not part of the regular test run (name does not end with Test), start it manually e.g. with
+ * <code>mvn test -Dtest=RasterNormalizationBenchmark</code>
+ */
+public class RasterNormalizationBenchmark {
+	private static final String[] RESOURCES = {"png_example1_alpha_144.png", "png_example4_500.png", "jpg_example_1920.jpg",
+			"gif_example_640.gif", "bmp_example_256.bmp", "tiff_example_256.tif"};
+	private static final EScalingAlgorithm[] ALGORITHMS = {EScalingAlgorithm.LANCZOS3, EScalingAlgorithm.BILINEAR_PROGRESSIVE, EScalingAlgorithm.NEAREST_NEIGHBOR};
+	private static final int WARMUP = 3;
+	private static final int RUNS = 10;
+
+	@Test
+	public void benchmark() throws Exception {
+		System.out.println(String.format(Locale.US, "%-28s %-22s %-12s %10s %10s %8s", "file", "algorithm", "type", "raw ms", "int ms", "speedup"));
+
+		for (String resource : RESOURCES) {
+			BufferedImage raw = ImageIO.read(new File(getClass().getClassLoader().getResource(resource).getFile()));
+			BufferedImage canonical = ImageUtil.toCanonicalRaster(copy(raw));
+
+			for (EScalingAlgorithm algorithm : ALGORITHMS) {
+				double rawMs = measure(algorithm.getImplementation(), raw);
+				double canonicalMs = measure(algorithm.getImplementation(), canonical);
+				System.out.println(String.format(Locale.US, "%-28s %-22s %-12s %10.2f %10.2f %7.2fx", resource, algorithm.getName(), typeName(raw.getType()),
+						rawMs, canonicalMs, rawMs / canonicalMs));
+			}
+		}
+	}
+
+	private static double measure(ScaleAlgorithm algorithm, BufferedImage image) {
+		int width = Math.max(1, image.getWidth() / 3);
+		int height = Math.max(1, image.getHeight() / 3);
+		for (int i = 0; i < WARMUP; i++) {
+			algorithm.scale(image, width, height);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			algorithm.scale(image, width, height);
+		}
+		return (System.nanoTime() - start) / 1_000_000.0 / RUNS;
+	}
+
+	private static BufferedImage copy(BufferedImage image) {
+		return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
+	}
+
+	private static String typeName(int type) {
+		switch (type) {
+			case BufferedImage.TYPE_CUSTOM:
+				return "CUSTOM";
+			case BufferedImage.TYPE_3BYTE_BGR:
+				return "3BYTE_BGR";
+			case BufferedImage.TYPE_4BYTE_ABGR:
+				return "4BYTE_ABGR";
+			case BufferedImage.TYPE_BYTE_INDEXED:
+				return "BYTE_INDEXED";
+			case BufferedImage.TYPE_BYTE_GRAY:
+				return "BYTE_GRAY";
+			case BufferedImage.TYPE_INT_ARGB:
+				return "INT_ARGB";
+			case BufferedImage.TYPE_INT_RGB:
+				return "INT_RGB";
+			default:
+				return String.valueOf(type);
+		}
+	}
+}
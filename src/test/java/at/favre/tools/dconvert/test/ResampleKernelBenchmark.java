@@ -0,0 +1,53 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.converters.scaling.ResambleAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.ScaleAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.SeparableResampleAlgorithm;
+import at.favre.tools.dconvert.util.ImageUtil;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Compares ResampleOp with the scalar, fixed-point and (if available) vector kernel of {@link SeparableResampleAlgorithm}. Not part of
+ * the regular test run, start it manually e.g. with <code>mvn test -Pvector -Dtest=ResampleKernelBenchmark</code>
+ */
+public class ResampleKernelBenchmark {
+	private static final float[] SCALES = {0.25f, 0.5f, 0.75f, 1.5f};
+	private static final int WARMUP = 5;
+	private static final int RUNS = 10;
+
+	@Test
+	public void benchmark() throws Exception {
+		BufferedImage src = ImageUtil.loadImage(new File(getClass().getClassLoader().getResource("jpg_example_1920.jpg").getFile())).getImage();
+		ResambleAlgorithm.LanczosFilter filter = new ResambleAlgorithm.LanczosFilter(3);
+		ScaleAlgorithm resampleOp = new ResambleAlgorithm(filter);
+		ScaleAlgorithm scalar = new SeparableResampleAlgorithm(filter, false);
+		ScaleAlgorithm fixedPoint = new SeparableResampleAlgorithm(filter, SeparableResampleAlgorithm.Precision.FIXED_POINT);
+		ScaleAlgorithm vector = SeparableResampleAlgorithm.isVectorKernelAvailable() ? new SeparableResampleAlgorithm(filter) : null;
+
+		System.out.println(String.format(Locale.US, "%-6s %14s %10s %10s %10s", "scale", "ResampleOp ms", "scalar ms", "fixed ms", "vector ms"));
+		for (float scale : SCALES) {
+			int width = Math.round(src.getWidth() * scale);
+			int height = Math.round(src.getHeight() * scale);
+			double resampleOpMs = measure(resampleOp, src, width, height);
+			double scalarMs = measure(scalar, src, width, height);
+			double fixedPointMs = measure(fixedPoint, src, width, height);
+			double vectorMs = vector != null ? measure(vector, src, width, height) : Double.NaN;
+			System.out.println(String.format(Locale.US, "%-6.2f %14.2f %10.2f %10.2f %10.2f", scale, resampleOpMs, scalarMs, fixedPointMs, vectorMs));
+		}
+	}
+
+	private static double measure(ScaleAlgorithm algorithm, BufferedImage image, int width, int height) {
+		for (int i = 0; i < WARMUP; i++) {
+			algorithm.scale(image, width, height);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			algorithm.scale(image, width, height);
+		}
+		return (System.nanoTime() - start) / 1_000_000.0 / RUNS;
+	}
+}
@@ -0,0 +1,207 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.arg.EScalingAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.ResambleAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.ScaleAlgorithm;
+import at.favre.tools.dconvert.converters.scaling.SeparableResampleAlgorithm;
+import at.favre.tools.dconvert.util.ImageUtil;
+import com.mortennobel.imagescaling.ResampleFilter;
+import com.mortennobel.imagescaling.ResampleFilters;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the separable resampler to java-image-scaling's ResampleOp
+ */
+public class SeparableResampleAlgorithmTest {
+	private static final ResampleFilter[] FILTERS = new ResampleFilter[]{new ResambleAlgorithm.LanczosFilter(3), new ResambleAlgorithm.LanczosFilter(1),
+			ResampleFilters.getMitchellFilter(), ResampleFilters.getBSplineFilter(), ResampleFilters.getHermiteFilter()};
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testMatchesResampleOp() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(temporaryFolder.getRoot(), "png_example1_alpha_144.png", "jpg_example2_512.jpg");
+		for (File file : files) {
+			BufferedImage src = ImageUtil.loadImage(file).getImage();
+			for (ResampleFilter filter : FILTERS) {
+				for (float scale : new float[]{0.13f, 0.5f, 0.77f, 1.6f}) {
+					assertSimilar(src, filter, Math.round(src.getWidth() * scale), Math.round(src.getHeight() * scale));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testOtherImageTypes() throws Exception {
+		BufferedImage src = ImageUtil.loadImage(AConverterTest.copyToTestPath(temporaryFolder.getRoot(), "jpg_example2_512.jpg").get(0)).getImage();
+		for (int type : new int[]{BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_4BYTE_ABGR}) {
+			BufferedImage converted = new BufferedImage(src.getWidth(), src.getHeight(), type);
+			converted.getGraphics().drawImage(src, 0, 0, null);
+			assertSimilar(converted, FILTERS[0], 101, 67);
+		}
+	}
+
+	@Test
+	public void testOddAndTinyDimensions() throws Exception {
+		BufferedImage src = ImageUtil.loadImage(AConverterTest.copyToTestPath(temporaryFolder.getRoot(), "png_example1_alpha_144.png").get(0)).getImage();
+		BufferedImage odd = src.getSubimage(3, 5, 97, 61);
+		assertSimilar(odd, FILTERS[0], 33, 19);
+		assertSimilar(odd, FILTERS[0], 3, 3);
+		assertSimilar(odd.getSubimage(0, 0, 97, 3), FILTERS[2], 20, 3);
+
+		// ResampleOp refuses targets smaller than 3x3
+		BufferedImage single = new SeparableResampleAlgorithm(FILTERS[0]).scale(odd, 1, 1);
+		assertEquals(1, single.getWidth());
+		assertEquals(1, single.getHeight());
+	}
+
+	@Test
+	public void testResultType() throws Exception {
+		ScaleAlgorithm algorithm = new SeparableResampleAlgorithm(FILTERS[0]);
+		assertEquals(BufferedImage.TYPE_INT_ARGB, algorithm.scale(new BufferedImage(50, 50, BufferedImage.TYPE_INT_ARGB), 20, 20).getType());
+		assertEquals(BufferedImage.TYPE_INT_RGB, algorithm.scale(new BufferedImage(50, 50, BufferedImage.TYPE_INT_RGB), 20, 20).getType());
+		assertEquals(algorithm, new SeparableResampleAlgorithm(FILTERS[0]));
+	}
+
+	@Test
+	public void testKernelsAreEqual() throws Exception {
+		BufferedImage src = ImageUtil.loadImage(AConverterTest.copyToTestPath(temporaryFolder.getRoot(), "png_example1_alpha_144.png").get(0)).getImage();
+		for (ResampleFilter filter : FILTERS) {
+			for (int[] size : new int[][]{{19, 23}, {144, 77}, {301, 203}, {1, 1}}) {
+				BufferedImage expected = new SeparableResampleAlgorithm(filter, false).scale(src, size[0], size[1]);
+				BufferedImage actual = new SeparableResampleAlgorithm(filter).scale(src, size[0], size[1]);
+				assertArrayEquals(filter.getName() + " " + size[0] + "x" + size[1],
+						expected.getRGB(0, 0, size[0], size[1], null, 0, size[0]), actual.getRGB(0, 0, size[0], size[1], null, 0, size[0]));
+			}
+		}
+		assertEquals(new SeparableResampleAlgorithm(FILTERS[0], false), new SeparableResampleAlgorithm(FILTERS[0]));
+	}
+
+	@Test
+	public void testFixedPointIsCloseToFloat() throws Exception {
+		BufferedImage src = ImageUtil.loadImage(AConverterTest.copyToTestPath(temporaryFolder.getRoot(), "jpg_example_1920.jpg").get(0)).getImage();
+		for (ResampleFilter filter : FILTERS) {
+			for (float scale : new float[]{0.03f, 0.25f, 0.77f, 1.3f}) {
+				int width = Math.round(src.getWidth() * scale);
+				int height = Math.round(src.getHeight() * scale);
+				BufferedImage expected = new SeparableResampleAlgorithm(filter, SeparableResampleAlgorithm.Precision.FLOAT).scale(src, width, height);
+				BufferedImage actual = new SeparableResampleAlgorithm(filter, SeparableResampleAlgorithm.Precision.FIXED_POINT).scale(src, width, height);
+				int[] expectedPixels = expected.getRGB(0, 0, width, height, null, 0, width);
+				int[] actualPixels = actual.getRGB(0, 0, width, height, null, 0, width);
+				for (int i = 0; i < expectedPixels.length; i++) {
+					for (int shift = 0; shift < 32; shift += 8) {
+						// at most one per pass
+						assertTrue(filter.getName() + " " + width + "x" + height + " at " + i % width + "," + i / width,
+								Math.abs(((expectedPixels[i] >> shift) & 0xFF) - ((actualPixels[i] >> shift) & 0xFF)) <= 2);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testFixedPointKeepsFlatColors() throws Exception {
+		for (int color : new int[]{0xFFFFFFFF, 0x00000000, 0x80FF0000, 0xFF123456}) {
+			BufferedImage src = new BufferedImage(97, 61, BufferedImage.TYPE_INT_ARGB);
+			for (int y = 0; y < src.getHeight(); y++) {
+				for (int x = 0; x < src.getWidth(); x++) {
+					src.setRGB(x, y, color);
+				}
+			}
+			BufferedImage scaled = EScalingAlgorithm.LANCZOS3_FAST.getImplementation().scale(src, 31, 77);
+			for (int pixel : scaled.getRGB(0, 0, 31, 77, null, 0, 31)) {
+				assertEquals(color, pixel);
+			}
+		}
+		assertNotEquals(EScalingAlgorithm.LANCZOS3_SEPARABLE.getImplementation(), EScalingAlgorithm.LANCZOS3_FAST.getImplementation());
+	}
+
+	@Test
+	public void testNamesAreUniqueAndFileNameSafe() throws Exception {
+		Set<String> names = new HashSet<>();
+		for (EScalingAlgorithm algorithm : EScalingAlgorithm.values()) {
+			if (algorithm.getImplementation() instanceof SeparableResampleAlgorithm) {
+				String name = algorithm.getImplementation().toString();
+				assertTrue(name, name.matches("[\\w-]+"));
+				assertTrue(name, names.add(name));
+			}
+		}
+	}
+
+	@Test
+	public void testTransparentPixelsDoNotBleed() throws Exception {
+		// left half opaque blue, right half fully transparent red
+		BufferedImage src = new BufferedImage(64, 48, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < src.getHeight(); y++) {
+			for (int x = 0; x < src.getWidth(); x++) {
+				src.setRGB(x, y, x < src.getWidth() / 2 ? 0xFF0000FF : 0x00FF0000);
+			}
+		}
+		for (SeparableResampleAlgorithm.Precision precision : SeparableResampleAlgorithm.Precision.values()) {
+			for (int[] size : new int[][]{{21, 16}, {50, 37}, {130, 97}}) {
+				BufferedImage premultiplied = new SeparableResampleAlgorithm(FILTERS[0], precision).scale(src, size[0], size[1]);
+				BufferedImage straight = new SeparableResampleAlgorithm(FILTERS[0], precision, false).scale(src, size[0], size[1]);
+				boolean straightBleeds = false;
+				for (int y = 0; y < size[1]; y++) {
+					for (int x = 0; x < size[0]; x++) {
+						int pixel = premultiplied.getRGB(x, y);
+						if (pixel >>> 24 == 0) {
+							assertEquals(0, pixel);
+						} else {
+							assertEquals(precision + " at " + x + "," + y, 0, (pixel >> 16) & 0xFF);
+							assertEquals(precision + " at " + x + "," + y, 0, (pixel >> 8) & 0xFF);
+						}
+						straightBleeds |= (straight.getRGB(x, y) >>> 24) != 0 && ((straight.getRGB(x, y) >> 16) & 0xFF) != 0;
+					}
+				}
+				assertTrue(straightBleeds);
+			}
+		}
+	}
+
+	@Test
+	public void testPremultipliedKeepsOpaqueImages() throws Exception {
+		BufferedImage src = ImageUtil.loadImage(AConverterTest.copyToTestPath(temporaryFolder.getRoot(), "jpg_example2_512.jpg").get(0)).getImage();
+		BufferedImage argb = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		argb.getGraphics().drawImage(src, 0, 0, null);
+		for (SeparableResampleAlgorithm.Precision precision : SeparableResampleAlgorithm.Precision.values()) {
+			BufferedImage expected = new SeparableResampleAlgorithm(FILTERS[0], precision, false).scale(argb, 201, 133);
+			BufferedImage actual = new SeparableResampleAlgorithm(FILTERS[0], precision).scale(argb, 201, 133);
+			assertArrayEquals(precision.name(), expected.getRGB(0, 0, 201, 133, null, 0, 201), actual.getRGB(0, 0, 201, 133, null, 0, 201));
+		}
+		assertNotEquals(new SeparableResampleAlgorithm(FILTERS[0], SeparableResampleAlgorithm.Precision.FLOAT, false), new SeparableResampleAlgorithm(FILTERS[0]));
+	}
+
+	private static void assertSimilar(BufferedImage src, ResampleFilter filter, int width, int height) {
+		BufferedImage expected = new ResambleAlgorithm(filter).scale(src, width, height);
+		// ResampleOp filters straight alpha
+		BufferedImage actual = new SeparableResampleAlgorithm(filter, SeparableResampleAlgorithm.Precision.FLOAT, false).scale(src, width, height);
+		assertEquals(width, actual.getWidth());
+		assertEquals(height, actual.getHeight());
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int expectedPixel = expected.getRGB(x, y);
+				int actualPixel = actual.getRGB(x, y);
+				for (int shift = 0; shift < 32; shift += 8) {
+					assertTrue(filter.getName() + " " + width + "x" + height + " at " + x + "," + y,
+							Math.abs(((expectedPixel >> shift) & 0xFF) - ((actualPixel >> shift) & 0xFF)) <= 1);
+				}
+			}
+		}
+	}
+}
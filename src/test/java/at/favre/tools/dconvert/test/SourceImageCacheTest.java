@@ -0,0 +1,277 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.util.ImageUtil;
+import at.favre.tools.dconvert.util.LoadedImage;
+import at.favre.tools.dconvert.util.MemoryBudget;
+import at.favre.tools.dconvert.util.SourceImageCache;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.*;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test of the shared source image cache
+ */
+public class SourceImageCacheTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	private File src;
+
+	@Before
+	public void setUp() throws Exception {
+		src = temporaryFolder.newFolder("cache-test");
+	}
+
+	@Test
+	public void testSharedBetweenRegisteredUsers() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png");
+		SourceImageCache cache = new SourceImageCache();
+		cache.register(files.get(0), 3);
+
+		LoadedImage first = cache.acquire(files.get(0));
+		LoadedImage second = cache.acquire(files.get(0));
+		assertSame(first, second);
+		cache.release(files.get(0));
+		cache.release(files.get(0));
+		assertEquals(1, cache.size());
+
+		assertSame(first, cache.acquire(files.get(0)));
+		cache.release(files.get(0));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testSkipWithoutAcquire() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png");
+		SourceImageCache cache = new SourceImageCache();
+		cache.register(files.get(0), 2);
+
+		cache.skip(files.get(0));
+		assertEquals(1, cache.size());
+		cache.acquire(files.get(0));
+		cache.release(files.get(0));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testSkipIgnoresUnregistered() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png");
+		SourceImageCache cache = new SourceImageCache();
+
+		LoadedImage image = cache.acquire(files.get(0));
+		cache.skip(files.get(0));
+		assertEquals(1, cache.size());
+		assertNotNull(image.getImage());
+		cache.release(files.get(0));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testPrefetchedImageIsShared() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "jpg_example2_512.jpg");
+		SourceImageCache cache = new SourceImageCache();
+		cache.register(files.get(0), 1);
+
+		Thread thread = new Thread(() -> cache.prefetch(files.get(0)));
+		thread.start();
+		thread.join();
+
+		LoadedImage image = cache.acquire(files.get(0));
+		assertNotNull(image.getImage());
+		cache.release(files.get(0));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testPrefetchIgnoresUnregisteredAndReleased() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "jpg_example2_512.jpg");
+		SourceImageCache cache = new SourceImageCache();
+
+		cache.prefetch(files.get(0));
+		assertEquals(0, cache.size());
+
+		cache.register(files.get(0), 1);
+		cache.skip(files.get(0));
+		cache.prefetch(files.get(0));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testUnregisteredIsReleasedAfterSingleUse() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "jpg_example2_512.jpg");
+		SourceImageCache cache = new SourceImageCache();
+
+		LoadedImage image = cache.acquire(files.get(0));
+		assertNotNull(image.getImage());
+		assertEquals(1, cache.size());
+		cache.release(files.get(0));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testModifiedFileIsDecodedAgain() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "png_example3_alpha_128.png");
+		SourceImageCache cache = new SourceImageCache();
+		cache.register(files.get(0), 2);
+
+		LoadedImage first = cache.acquire(files.get(0));
+		assertTrue(files.get(0).setLastModified(files.get(0).lastModified() - 10000));
+		LoadedImage second = cache.acquire(files.get(0));
+		assertNotSame(first, second);
+		cache.release(files.get(0));
+	}
+
+	@Test
+	public void testModifiedAfterRegisterIsReleased() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "png_example3_alpha_128.png");
+		SourceImageCache cache = new SourceImageCache();
+		cache.register(files.get(0), 2);
+		cache.prefetch(files.get(0));
+
+		assertTrue(files.get(0).setLastModified(files.get(0).lastModified() - 10000));
+		assertNotNull(cache.acquire(files.get(0)).getImage());
+		cache.release(files.get(0));
+		cache.skip(files.get(0));
+		assertEquals(0, cache.size());
+	}
+
+	@Test(expected = Exception.class)
+	public void testMissingFileThrows() throws Exception {
+		SourceImageCache cache = new SourceImageCache();
+		File file = new File(src, "does_not_exist.png");
+		try {
+			cache.acquire(file);
+		} finally {
+			cache.release(file);
+			assertEquals(0, cache.size());
+		}
+	}
+
+	@Test
+	public void testSubsampledDecodeKeepsSourceDimension() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "jpg_example_1920.jpg");
+		SourceImageCache cache = new SourceImageCache();
+		cache.register(files.get(0), 1);
+		cache.setSubsampling(files.get(0), 4);
+
+		LoadedImage image = cache.acquire(files.get(0));
+		Dimension srcDimension = ImageUtil.getImageDimension(files.get(0));
+		assertEquals(srcDimension, image.getSourceDimension());
+		assertEquals(ImageUtil.getSubsampledDimension(srcDimension, 4), new Dimension(image.getImage().getWidth(), image.getImage().getHeight()));
+		cache.release(files.get(0));
+	}
+
+	@Test
+	public void testJpegIsLoadedWithExif() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "jpg_example2_512.jpg", "jpg_example_1920.jpg");
+
+		LoadedImage withExif = ImageUtil.loadImage(files.get(0));
+		assertNotNull(withExif.getExif());
+		assertEquals(ImageUtil.getImageDimension(files.get(0)), new Dimension(withExif.getImage().getWidth(), withExif.getImage().getHeight()));
+
+		LoadedImage withoutExif = ImageUtil.loadImage(files.get(1));
+		assertNull(withoutExif.getExif());
+		assertEquals(ImageUtil.getImageDimension(files.get(1)), new Dimension(withoutExif.getImage().getWidth(), withoutExif.getImage().getHeight()));
+	}
+
+	@Test
+	public void testSubsamplingKeepsSafetyMargin() throws Exception {
+		assertEquals(1, ImageUtil.getSubsampling(new Dimension(1000, 1000), null));
+		assertEquals(1, ImageUtil.getSubsampling(new Dimension(1000, 1000), new Dimension(400, 400)));
+		assertEquals(2, ImageUtil.getSubsampling(new Dimension(1000, 1000), new Dimension(250, 250)));
+		assertEquals(4, ImageUtil.getSubsampling(new Dimension(4000, 2000), new Dimension(480, 240)));
+		assertEquals(1, ImageUtil.getSubsampling(new Dimension(100, 100), new Dimension(200, 200)));
+	}
+
+	@Test
+	public void testEncodedVariantIsOnlyCreatedOnce() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png");
+		SourceImageCache cache = new SourceImageCache();
+		cache.register(files.get(0), 2);
+		AtomicInteger encodeCount = new AtomicInteger();
+
+		byte[] first = cache.acquire(files.get(0)).getEncodedVariant("48x48.png", () -> new byte[]{(byte) encodeCount.incrementAndGet()});
+		byte[] second = cache.acquire(files.get(0)).getEncodedVariant("48x48.png", () -> new byte[]{(byte) encodeCount.incrementAndGet()});
+		byte[] other = cache.acquire(files.get(0)).getEncodedVariant("48x48.jpg", () -> new byte[]{(byte) encodeCount.incrementAndGet()});
+
+		assertSame(first, second);
+		assertNotSame(first, other);
+		assertEquals(2, encodeCount.get());
+		cache.release(files.get(0));
+		cache.release(files.get(0));
+	}
+
+	@Test
+	public void testFailedEncodedVariantIsRetried() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png");
+		LoadedImage image = new SourceImageCache().acquire(files.get(0));
+
+		try {
+			image.getEncodedVariant("48x48.png", () -> {
+				throw new IllegalStateException("test");
+			});
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("test", e.getMessage());
+		}
+		assertArrayEquals(new byte[]{1}, image.getEncodedVariant("48x48.png", () -> new byte[]{1}));
+	}
+
+	@Test(timeout = 10000)
+	public void testErrorWhileEncodingDoesNotBlockWaitingCallers() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png");
+		LoadedImage image = new SourceImageCache().acquire(files.get(0));
+		CountDownLatch encoding = new CountDownLatch(1);
+		CountDownLatch waiting = new CountDownLatch(1);
+
+		Thread failing = new Thread(() -> {
+			try {
+				image.getEncodedVariant("48x48.png", () -> {
+					encoding.countDown();
+					waiting.await();
+					throw new OutOfMemoryError("test");
+				});
+			} catch (Throwable e) {
+				// expected
+			}
+		});
+		failing.start();
+		encoding.await();
+
+		// lets the encoder fail after this thread started waiting for it
+		new Thread(() -> {
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException e) {
+				// fail anyway
+			}
+			waiting.countDown();
+		}).start();
+		assertArrayEquals(new byte[]{1}, image.getEncodedVariant("48x48.png", () -> new byte[]{1}));
+		failing.join();
+	}
+
+	@Test
+	public void testEncodedVariantsAreCountedInMemoryBudget() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "png_example1_alpha_144.png");
+		MemoryBudget budget = new MemoryBudget(1);
+		SourceImageCache cache = new SourceImageCache(budget);
+
+		LoadedImage image = cache.acquire(files.get(0));
+		image.getEncodedVariant("48x48.png", () -> new byte[100]);
+		image.getEncodedVariant("48x48.png", () -> new byte[100]);
+		image.getEncodedVariant("72x72.png", () -> new byte[50]);
+		assertEquals(150, budget.getUsedBytes());
+
+		cache.release(files.get(0));
+		assertEquals(0, budget.getUsedBytes());
+	}
+}
@@ -0,0 +1,100 @@
+package at.favre.tools.dconvert.test;
+
+import at.favre.tools.dconvert.util.SvgDocument;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test of the shared svg renderer
+ */
+public class SvgDocumentTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	private File svg;
+
+	@Before
+	public void setUp() throws Exception {
+		svg = AConverterTest.copyToTestPath(temporaryFolder.getRoot(), "svg_example_512.svg").get(0);
+	}
+
+	@Test
+	public void testRenderFillsTargetDimension() throws Exception {
+		SvgDocument document = SvgDocument.parse(svg);
+		for (int size : new int[]{32, 100, 700}) {
+			BufferedImage image = document.render(new Dimension(size, size));
+			assertEquals(size, image.getWidth());
+			assertEquals(size, image.getHeight());
+			assertEquals(BufferedImage.TYPE_INT_ARGB, image.getType());
+
+			int minX = size, maxX = -1;
+			for (int x = 0; x < size; x++) {
+				if ((image.getRGB(x, size / 2) >>> 24) != 0) {
+					minX = Math.min(minX, x);
+					maxX = Math.max(maxX, x);
+				}
+			}
+			assertTrue("content of " + size + "px render only spans " + minX + "-" + maxX, maxX - minX > size * 0.9);
+		}
+	}
+
+	@Test
+	public void testConcurrentRendersAreEqualToSerial() throws Exception {
+		SvgDocument document = SvgDocument.parse(svg);
+		Dimension[] dimensions = {new Dimension(48, 48), new Dimension(96, 96), new Dimension(144, 144), new Dimension(192, 192)};
+		List<BufferedImage> expected = new ArrayList<>();
+		for (Dimension dimension : dimensions) {
+			expected.add(document.render(dimension));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<BufferedImage>> futures = new ArrayList<>();
+			for (int i = 0; i < 16; i++) {
+				Dimension dimension = dimensions[i % dimensions.length];
+				futures.add(executor.submit(() -> document.render(dimension)));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				assertSameRgb(expected.get(i % dimensions.length), futures.get(i).get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testRenderAfterFlush() throws Exception {
+		SvgDocument document = SvgDocument.parse(svg);
+		BufferedImage first = document.render(new Dimension(64, 64));
+		document.flush();
+		assertSameRgb(first, document.render(new Dimension(64, 64)));
+	}
+
+	@Test(expected = Exception.class)
+	public void testInvalidFileThrows() throws Exception {
+		File png = AConverterTest.copyToTestPath(temporaryFolder.getRoot(), "png_example1_alpha_144.png").get(0);
+		SvgDocument.parse(png);
+	}
+
+	private static void assertSameRgb(BufferedImage expected, BufferedImage actual) {
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+			}
+		}
+	}
+}
@@ -3,6 +3,7 @@ package at.favre.tools.dconvert.test;
 import at.favre.tools.dconvert.WorkerHandler;
 import at.favre.tools.dconvert.arg.Arguments;
 import at.favre.tools.dconvert.arg.EPlatform;
+import at.favre.tools.dconvert.arg.EScaleMode;
 import at.favre.tools.dconvert.converters.AndroidConverter;
 import at.favre.tools.dconvert.converters.IPlatformConverter;
 import at.favre.tools.dconvert.converters.postprocessing.IPostProcessor;
@@ -15,8 +16,10 @@ import java.io.File;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -69,6 +72,30 @@ public class WorkerHandlerTest extends AIntegrationTest {
 		checkResult(callback);
 	}
 
+	@Test
+	public void test600With20ProcessorsFilesInput() throws Exception {
+		List<File> files = createFiles(600);
+		List<IPostProcessor> postProcessors = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			postProcessors.add(new MockProcessor(0));
+		}
+		TestCallback callback = new TestCallback(files.size() * postProcessors.size(), Collections.emptyList(), false, latch);
+		new WorkerHandler<>(postProcessors, arguments, callback).start(files);
+		assertTrue(latch.await(WAIT_SEC, TimeUnit.SECONDS));
+		checkResult(callback);
+		assertTrue("progress should be coalesced", callback.progressCalls.get() < callback.expectedJobs / 10);
+	}
+
+	@Test
+	public void test100With3ProcessorsOwnThreadCountFilesInput() throws Exception {
+		List<File> files = createFiles(100);
+		List<IPostProcessor> postProcessors = createProcessors(3);
+		TestCallback callback = new TestCallback(files.size() * postProcessors.size(), Collections.emptyList(), false, latch);
+		new WorkerHandler<>(postProcessors, arguments, 16, callback).start(files);
+		assertTrue(latch.await(WAIT_SEC, TimeUnit.SECONDS));
+		checkResult(callback);
+	}
+
 	@Test
 	public void testShouldHaveException() throws Exception {
 		List<File> files = createFiles(1);
@@ -100,6 +127,64 @@ public class WorkerHandlerTest extends AIntegrationTest {
 		checkResult(callback);
 	}
 
+	@Test
+	public void testStreamZeroFilesInput() throws Exception {
+		TestCallback callback = new TestCallback(0, Collections.emptyList(), false, latch);
+		WorkerHandler<IPostProcessor> handler = new WorkerHandler<>(Collections.singletonList(new MockProcessor()), arguments, callback);
+		handler.startStream();
+		handler.close();
+		assertTrue(latch.await(WAIT_SEC, TimeUnit.SECONDS));
+		checkResult(callback);
+	}
+
+	@Test
+	public void testStream100With3ProcessorsFilesInput() throws Exception {
+		List<File> files = createFiles(100);
+		List<IPostProcessor> postProcessors = createProcessors(3);
+		TestCallback callback = new TestCallback(files.size() * postProcessors.size(), Collections.emptyList(), false, latch);
+		WorkerHandler<IPostProcessor> handler = new WorkerHandler<>(postProcessors, arguments, callback);
+		handler.startStream();
+		for (File file : files) {
+			handler.add(file);
+		}
+		assertEquals(1, latch.getCount());
+		handler.close();
+		assertTrue(latch.await(WAIT_SEC, TimeUnit.SECONDS));
+		checkResult(callback);
+	}
+
+	@Test
+	public void testStreamWithoutProcessors() throws Exception {
+		TestCallback callback = new TestCallback(0, Collections.emptyList(), false, latch);
+		WorkerHandler<IPostProcessor> handler = new WorkerHandler<>(Collections.emptyList(), arguments, callback);
+		handler.startStream();
+		handler.add(new File("mock"));
+		handler.close();
+		assertTrue(latch.await(WAIT_SEC, TimeUnit.SECONDS));
+		checkResult(callback);
+	}
+
+	@Test
+	public void testStreamCancelWakesBlockedAdd() throws Exception {
+		WorkerHandler<IPostProcessor> handler = new WorkerHandler<>(Collections.singletonList(new MockProcessor(500)), arguments, 1,
+				new TestCallback(0, Collections.emptyList(), false, latch));
+		handler.startStream();
+		Thread producer = new Thread(() -> {
+			for (File file : createFiles(100)) {
+				handler.add(file);
+			}
+		});
+		producer.start();
+		while (producer.getState() != Thread.State.WAITING) {
+			assertTrue(producer.isAlive());
+			Thread.sleep(10);
+		}
+
+		handler.cancel();
+		producer.join(TimeUnit.SECONDS.toMillis(WAIT_SEC));
+		assertFalse(producer.isAlive());
+	}
+
 	@Test
 	public void testAndroidConverterInHandler() throws Exception {
 		List<File> files = AConverterTest.copyToTestPath(src, "png_example2_alpha_144.png", "gif_example_640.gif", "jpg_example_1920.jpg");
@@ -123,6 +208,42 @@ public class WorkerHandlerTest extends AIntegrationTest {
 		AConverterTest.checkMultiPlatformConvert(dst, arg, files);
 	}
 
+	@Test
+	public void testConverterWithMemoryBudgetSmallerThanImages() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "png_example3_alpha_128.png", "jpg_example_1920.jpg", "png_example4_500.png");
+		List<IPlatformConverter> converters = EPlatform.getAllConverters();
+		Arguments arg = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).platform(EPlatform.getAll()).dstFolder(dst).threadCount(4).memoryBudget(1).build();
+		TestCallback callback = new TestCallback(files.size() * converters.size(), Collections.emptyList(), false, latch);
+		new WorkerHandler<>(converters, arg, callback).start(files);
+		assertTrue(latch.await(WAIT_SEC, TimeUnit.SECONDS));
+		checkResult(callback);
+		AConverterTest.checkMultiPlatformConvert(dst, arg, files);
+	}
+
+	@Test
+	public void testConverterWithSubsampledSource() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "jpg_example_1920.jpg", "png_example4_500.png");
+		List<IPlatformConverter> converters = EPlatform.getAllConverters();
+		Arguments arg = new Arguments.Builder(src, 24).scaleMode(EScaleMode.DP_WIDTH).platform(EPlatform.getAll()).dstFolder(dst).threadCount(4).build();
+		TestCallback callback = new TestCallback(files.size() * converters.size(), Collections.emptyList(), false, latch);
+		new WorkerHandler<>(converters, arg, callback).start(files);
+		assertTrue(latch.await(WAIT_SEC, TimeUnit.SECONDS));
+		checkResult(callback);
+		AConverterTest.checkMultiPlatformConvert(dst, arg, files);
+	}
+
+	@Test
+	public void testConverterWithoutPrefetch() throws Exception {
+		List<File> files = AConverterTest.copyToTestPath(src, "png_example3_alpha_128.png", "png_example1_alpha_144.png", "jpg_example2_512.jpg");
+		List<IPlatformConverter> converters = EPlatform.getAllConverters();
+		Arguments arg = new Arguments.Builder(src, Arguments.DEFAULT_SCALE).platform(EPlatform.getAll()).dstFolder(dst).threadCount(4).prefetch(0).build();
+		TestCallback callback = new TestCallback(files.size() * converters.size(), Collections.emptyList(), false, latch);
+		new WorkerHandler<>(converters, arg, callback).start(files);
+		assertTrue(latch.await(WAIT_SEC, TimeUnit.SECONDS));
+		checkResult(callback);
+		AConverterTest.checkMultiPlatformConvert(dst, arg, files);
+	}
+
 	private void checkResult(TestCallback callback) {
 		assertEquals(callback.expectedJobs, callback.actualJobs);
 		assertEquals(callback.expectedExceptions, callback.actualExceptions);
@@ -154,6 +275,7 @@ public class WorkerHandlerTest extends AIntegrationTest {
 		private int actualJobs;
 		private List<Exception> actualExceptions;
 		private boolean actualHaltDuringProcess;
+		private final AtomicInteger progressCalls = new AtomicInteger();
 
 		public TestCallback(int expectedJobs, List<Exception> expectedExceptions, boolean expectedHaltDuringProcess, CountDownLatch latch) {
 			this.expectedJobs = expectedJobs;
@@ -164,6 +286,7 @@ public class WorkerHandlerTest extends AIntegrationTest {
 
 		@Override
 		public void onProgress(float percent) {
+			progressCalls.incrementAndGet();
 		}
 
 		@Override